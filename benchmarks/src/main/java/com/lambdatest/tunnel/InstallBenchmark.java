@@ -0,0 +1,99 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Download-and-install throughput against a local HTTP server serving a zip with a binary sized
+ * like the real one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstallBenchmark {
+
+    @Param({"16"})
+    public int binaryMegabytes;
+
+    private HttpServer server;
+    private String url;
+    private File target;
+    private final BinaryDownloader downloader = new BinaryDownloader();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final byte[] zip = zip(binaryMegabytes * 1024 * 1024);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, zip.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(zip);
+            out.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/LT.zip";
+        target = File.createTempFile("LT-benchmark", ".part");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        target.delete();
+    }
+
+    /**
+     * Saves the zip to disk, as the resumable install mode does before unzipping.
+     */
+    @Benchmark
+    public long downloadZip() throws Exception {
+        target.delete();
+        return downloader.download(url, target, null, null).bytes;
+    }
+
+    /**
+     * Inflates the binary straight from the response and hashes it, as the default install does.
+     */
+    @Benchmark
+    public String streamingInstall() throws Exception {
+        return downloader.extract(url, "LT", target, null, null).sha256;
+    }
+
+    private static byte[] zip(int size) throws Exception {
+        // Half random, half repetitive, so the entry compresses roughly like an executable.
+        byte[] binary = new byte[size];
+        new Random(42).nextBytes(binary);
+        for (int i = 0; i < size; i += 2) binary[i] = 0;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("LT"));
+        zip.write(binary);
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+}
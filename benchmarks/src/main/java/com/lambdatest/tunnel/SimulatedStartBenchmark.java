@@ -0,0 +1,72 @@
+package com.lambdatest.tunnel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until all of N simulated tunnels, started at once, are connected. With a fixed simulated
+ * connect latency the excess over that latency is the library's scaling overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulatedStartBenchmark {
+
+    @Param({"1", "100", "500"})
+    public int concurrency;
+
+    @Param({"200"})
+    public long connectLatency;
+
+    private Map<String, String> options;
+    private List<SimulatedTunnel> tunnels;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        tunnels = new ArrayList<SimulatedTunnel>();
+        for (int i = 0; i < concurrency; i++) {
+            SimulatedTunnel t = new SimulatedTunnel();
+            t.setConnectLatency(connectLatency);
+            tunnels.add(t);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        for (SimulatedTunnel t : tunnels) {
+            t.stop();
+        }
+    }
+
+    @Benchmark
+    public void startAll() {
+        List<CompletableFuture<Tunnel>> starts = new ArrayList<CompletableFuture<Tunnel>>();
+        for (SimulatedTunnel t : tunnels) {
+            starts.add(t.startAsync(options));
+        }
+        CompletableFuture.allOf(starts.toArray(new CompletableFuture[0])).join();
+    }
+}
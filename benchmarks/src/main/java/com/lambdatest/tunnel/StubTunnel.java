@@ -0,0 +1,57 @@
+package com.lambdatest.tunnel;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tunnel whose binary is answered in memory, so a start/stop cycle measures the library's own
+ * work rather than a process launch.
+ */
+class StubTunnel extends Tunnel {
+
+    private static final byte[] CONNECTED =
+            "{\"state\":\"connected\",\"pid\":4242}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY = new byte[0];
+
+    static Map<String, String> options() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        options.put("user", "benchmark");
+        options.put("binarypath", "/nonexistent/LT");
+        options.put("tunnelName", "benchmark");
+        options.put("infoAPIPort", "8000");
+        options.put("logFile", "/tmp/lt.log");
+        options.put("proxyHost", "localhost");
+        options.put("proxyPort", "3128");
+        options.put("v", "true");
+        return options;
+    }
+
+    @Override
+    protected TunnelProcess runCommand(List<String> command) {
+        final byte[] stdout = command.contains("start") ? CONNECTED : EMPTY;
+        return new TunnelProcess() {
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(stdout);
+            }
+
+            public InputStream getErrorStream() {
+                return new ByteArrayInputStream(EMPTY);
+            }
+
+            public int waitFor() {
+                return 0;
+            }
+        };
+    }
+
+    @Override
+    protected CompletableFuture<?> watchProcess(int pid) {
+        return new CompletableFuture<Object>();
+    }
+}
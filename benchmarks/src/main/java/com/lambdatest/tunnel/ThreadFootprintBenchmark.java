@@ -0,0 +1,109 @@
+package com.lambdatest.tunnel;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Platform threads and heap used while N simulated tunnels connect at once. The secondary results
+ * are the peak number of platform threads above the idle baseline, the threads still alive once
+ * all are connected, and the heap retained by the connected tunnels. Compare a run on Java 17
+ * (bounded platform pool) with one on Java 21 (virtual threads).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ThreadFootprintBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int tunnelCount;
+
+    @Param({"200"})
+    public long connectLatency;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private Map<String, String> options;
+    private List<SimulatedTunnel> tunnels;
+    private int baselineThreads;
+    private long baselineHeap;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long peakThreads;
+        public long liveThreads;
+        public long heapBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakThreads = 0;
+            liveThreads = 0;
+            heapBytes = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        tunnels = new ArrayList<SimulatedTunnel>();
+        for (int i = 0; i < tunnelCount; i++) {
+            SimulatedTunnel t = new SimulatedTunnel();
+            t.setConnectLatency(connectLatency);
+            tunnels.add(t);
+        }
+        // let idle pool threads of the previous iteration expire from the count
+        System.gc();
+        Thread.sleep(100);
+        baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        baselineThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        for (SimulatedTunnel t : tunnels) {
+            t.stop();
+        }
+    }
+
+    @Benchmark
+    public void connectAll(Footprint footprint) {
+        List<CompletableFuture<Tunnel>> starts = new ArrayList<CompletableFuture<Tunnel>>();
+        for (SimulatedTunnel t : tunnels) {
+            starts.add(t.startAsync(options));
+        }
+        CompletableFuture.allOf(starts.toArray(new CompletableFuture[0])).join();
+
+        footprint.peakThreads = threads.getPeakThreadCount() - baselineThreads;
+        footprint.liveThreads = threads.getThreadCount() - baselineThreads;
+        System.gc();
+        footprint.heapBytes = memory.getHeapMemoryUsage().getUsed() - baselineHeap;
+    }
+}
@@ -0,0 +1,94 @@
+package com.lambdatest.tunnel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of a Tunnel that do not depend on the network: building the command line, a full
+ * start/stop cycle against an in-memory binary, and the isRunning() probe. The start benchmarks
+ * run once with options given as a Map, compiled on every start, and once with TunnelOptions
+ * compiled up front.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TunnelBenchmark {
+
+    private Map<String, String> commandOptions;
+    private Map<String, String> options;
+    private TunnelOptions compiledCommandOptions;
+    private TunnelOptions compiledOptions;
+    private Tunnel running;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        options = StubTunnel.options();
+        commandOptions = new HashMap<String, String>(options);
+        commandOptions.put("onlyCommand", "true");
+        compiledCommandOptions = TunnelOptions.of(commandOptions);
+        compiledOptions = TunnelOptions.of(options);
+        running = new StubTunnel();
+        running.start(options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running.stop();
+    }
+
+    /**
+     * start() with onlyCommand returns right after building the argv.
+     */
+    @Benchmark
+    public List<String> makeCommand() throws Exception {
+        Tunnel t = new Tunnel();
+        t.start(commandOptions);
+        return t.command;
+    }
+
+    @Benchmark
+    public List<String> makeCommandCompiled() throws Exception {
+        Tunnel t = new Tunnel();
+        t.start(compiledCommandOptions);
+        return t.command;
+    }
+
+    @Benchmark
+    public Tunnel startStop() throws Exception {
+        Tunnel t = new StubTunnel();
+        t.start(options);
+        t.stop();
+        return t;
+    }
+
+    @Benchmark
+    public Tunnel startStopCompiled() throws Exception {
+        Tunnel t = new StubTunnel();
+        t.start(compiledOptions);
+        t.stop();
+        return t;
+    }
+
+    @Benchmark
+    public boolean isRunning() throws Exception {
+        return running.isRunning();
+    }
+}
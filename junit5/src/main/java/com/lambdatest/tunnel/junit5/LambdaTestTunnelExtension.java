@@ -0,0 +1,62 @@
+package com.lambdatest.tunnel.junit5;
+
+import com.lambdatest.tunnel.SharedTunnel;
+import com.lambdatest.tunnel.Tunnel;
+import com.lambdatest.tunnel.TunnelOptions;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * Injects the {@link SharedTunnel} of the test run into test and lifecycle methods. A
+ * {@link Tunnel} parameter waits until the tunnel is connected, so only the first test that needs
+ * it blocks, and only for what is left of the connect; a {@link TunnelOptions} parameter, e.g. to
+ * read the tunnelName for the session capabilities, does not wait.
+ * <pre>
+ * &#64;ExtendWith(LambdaTestTunnelExtension.class)
+ * class CheckoutTest {
+ *     &#64;Test
+ *     void checkout(Tunnel tunnel, TunnelOptions options) { ... }
+ * }
+ * </pre>
+ * The tunnel is stopped at the end of the run, also where the JUnit Platform does not call
+ * {@link LambdaTestTunnelSessionListener}.
+ */
+public class LambdaTestTunnelExtension implements ParameterResolver {
+
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(SharedTunnel.class);
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        Class<?> type = parameterContext.getParameter().getType();
+        return type == Tunnel.class || type == TunnelOptions.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        SharedTunnel shared;
+        try {
+            shared = SharedTunnel.get();
+        } catch (IllegalStateException e) {
+            throw new ParameterResolutionException(e.getMessage(), e);
+        }
+        if (parameterContext.getParameter().getType() == TunnelOptions.class) {
+            return shared.getOptions();
+        }
+        stopAtEnd(extensionContext, shared);
+        try {
+            return shared.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParameterResolutionException("Interrupted waiting for the LambdaTest tunnel", e);
+        } catch (Exception e) {
+            throw new ParameterResolutionException("LambdaTest tunnel did not connect: " + e.getMessage(), e);
+        }
+    }
+
+    private static void stopAtEnd(ExtensionContext context, final SharedTunnel shared) {
+        context.getRoot().getStore(NAMESPACE).getOrComputeIfAbsent(SharedTunnel.class,
+                key -> (ExtensionContext.Store.CloseableResource) shared::stop);
+    }
+}
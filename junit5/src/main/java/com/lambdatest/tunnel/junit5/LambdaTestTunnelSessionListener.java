@@ -0,0 +1,34 @@
+package com.lambdatest.tunnel.junit5;
+
+import com.lambdatest.tunnel.SharedTunnel;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.LauncherSessionListener;
+
+/**
+ * Starts the {@link SharedTunnel} in the background as soon as the JUnit Platform launches, so
+ * that it connects while tests are discovered and fixtures set up, and stops it when the launcher
+ * session ends. Registered automatically; does nothing unless a LambdaTest key is configured, or
+ * if the {@code lambdatest.tunnel.autoStart} system property is {@code false}.
+ */
+public class LambdaTestTunnelSessionListener implements LauncherSessionListener {
+
+    static final String AUTO_START_PROPERTY = "lambdatest.tunnel.autoStart";
+
+    @Override
+    public void launcherSessionOpened(LauncherSession session) {
+        if (Boolean.parseBoolean(System.getProperty(AUTO_START_PROPERTY, "true")) && SharedTunnel.isConfigured()) {
+            // failures are reported to the tests that wait for the tunnel
+            SharedTunnel.get().start();
+        }
+    }
+
+    @Override
+    public void launcherSessionClosed(LauncherSession session) {
+        if (!SharedTunnel.isConfigured()) return;
+        try {
+            SharedTunnel.get().stop();
+        } catch (Exception e) {
+            // the run is over; nothing left to report it to
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.lambdatest.tunnel.junit5;
+
+import com.lambdatest.tunnel.SharedTunnel;
+import com.lambdatest.tunnel.Tunnel;
+import com.lambdatest.tunnel.TunnelOptions;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(LambdaTestTunnelExtension.class)
+class CheckoutTest {
+
+    @RepeatedTest(4)
+    void sharesOneTunnel(Tunnel tunnel, TunnelOptions options) throws Exception {
+        assertTrue(tunnel.isRunning());
+        assertSame(SharedTunnel.get().await(), tunnel);
+        assertEquals("junit5", options.getTunnelName());
+        assertEquals(1, StubLog.running(options.getTunnelName()));
+    }
+}
@@ -0,0 +1,30 @@
+package com.lambdatest.tunnel.junit5;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Operations the stub binary in src/test/stub was run with in this build; the build deletes its
+ * log before the tests run.
+ */
+final class StubLog {
+
+    private StubLog() {
+    }
+
+    /**
+     * @return the operations in the order they were run
+     */
+    static List<String> operations(String tunnelName) throws Exception {
+        return Files.readAllLines(Paths.get(System.getenv("LT_STUB_STATE"), "LT-stub." + tunnelName + ".log"));
+    }
+
+    /**
+     * @return starts minus stops, 1 while the run's tunnel is up
+     */
+    static long running(String tunnelName) throws Exception {
+        List<String> lines = operations(tunnelName);
+        return lines.stream().filter("start"::equals).count() - lines.stream().filter("stop"::equals).count();
+    }
+}
@@ -0,0 +1,18 @@
+package com.lambdatest.tunnel.junit5;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Run by a surefire execution of its own once the other tests' launcher session is closed.
+ */
+class TunnelStoppedTest {
+
+    @Test
+    void sessionStoppedItsTunnelOnce() throws Exception {
+        assertEquals(Arrays.asList("start", "stop"), StubLog.operations("junit5"));
+    }
+}
@@ -0,0 +1,312 @@
+package com.lambdatest.tunnel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Downloads the tunnel zip into a file with NIO channel transfers. Connect and read timeouts are
+ * always set, and a connection dropped mid-transfer is resumed from the bytes already on disk with
+ * an HTTP Range request instead of starting over. Alternatively a single entry can be inflated
+ * straight from the response, without the zip ever touching the disk. Only connection errors and
+ * 5xx responses are retried; any other unexpected response fails at once.
+ */
+class BinaryDownloader {
+
+    static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    /**
+     * Receives download progress after every transferred chunk.
+     */
+    interface ProgressListener {
+        /**
+         * @param bytesRead      bytes of the file on disk so far, including resumed bytes
+         * @param totalBytes     size of the file, or -1 if the server did not report it
+         * @param bytesPerSecond throughput of the current download call
+         */
+        void onProgress(long bytesRead, long totalBytes, double bytesPerSecond);
+    }
+
+    /**
+     * A response that is neither the file nor a 304.
+     */
+    @SuppressWarnings("serial")
+    static class HttpStatusException extends IOException {
+        final int status;
+
+        HttpStatusException(int status, String url) {
+            super("Unexpected response " + status + " for " + url);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Outcome of a download.
+     */
+    static class Result {
+        boolean notModified;
+        long bytes;
+        String sha256;
+        String etag;
+        String lastModified;
+    }
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxAttempts;
+    private final ProgressListener listener;
+
+    BinaryDownloader() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_ATTEMPTS, null);
+    }
+
+    /**
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout    read timeout in milliseconds
+     * @param maxAttempts    number of connections tried before giving up
+     * @param listener       progress callback, may be null
+     */
+    BinaryDownloader(int connectTimeout, int readTimeout, int maxAttempts, ProgressListener listener) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxAttempts = maxAttempts;
+        this.listener = listener;
+    }
+
+    /**
+     * Downloads {@code url} into {@code target}, resuming from any bytes already in it.
+     *
+     * @param url          file to download
+     * @param target       file to write; existing content is treated as a partial download
+     * @param etag         ETag of the cached copy for a conditional request, may be null
+     * @param lastModified Last-Modified of the cached copy for a conditional request, may be null
+     * @return the result; if {@code notModified} is set {@code target} was not touched
+     * @throws IOException if the file could not be downloaded completely within maxAttempts
+     */
+    Result download(String url, File target, String etag, String lastModified) throws IOException {
+        long started = System.nanoTime();
+        long startOffset = target.length();
+        String validator = null;
+        IOException failure = null;
+
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            long offset = target.length();
+            HttpURLConnection conn = openConnection(url);
+            if (offset > 0) {
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (validator != null) {
+                    conn.setRequestProperty("If-Range", validator);
+                }
+            } else {
+                if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+                if (lastModified != null) conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            try {
+                int status = conn.getResponseCode();
+                Result result = newResult(conn);
+
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED && offset == 0) {
+                    result.notModified = true;
+                    return result;
+                }
+                if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new HttpStatusException(status, url);
+                }
+                if (status == HttpURLConnection.HTTP_OK) {
+                    // Server ignored the range or the file changed; start over.
+                    offset = 0;
+                    startOffset = 0;
+                }
+                validator = result.etag != null ? result.etag : result.lastModified;
+
+                long length = conn.getContentLengthLong();
+                long total = length < 0 ? -1 : offset + length;
+                result.bytes = transfer(conn.getInputStream(), target, offset, total, startOffset, started);
+                if (total >= 0 && result.bytes < total) {
+                    throw new IOException("Connection closed after " + result.bytes + " of " + total + " bytes");
+                }
+                return result;
+            } catch (IOException e) {
+                if (!retriable(e)) throw e;
+                failure = e;
+            } finally {
+                conn.disconnect();
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Downloads the zip at {@code url} and inflates the entry named {@code entryName} into
+     * {@code target} in the same pass, computing its SHA-256 on the way. Other entries are
+     * skipped. Since an inflater cannot be resumed, a dropped connection restarts the download.
+     *
+     * @param url          zip to download
+     * @param entryName    file name of the entry to extract, directories in the zip are ignored
+     * @param target       file the entry is written to; overwritten
+     * @param etag         ETag of the cached copy for a conditional request, may be null
+     * @param lastModified Last-Modified of the cached copy for a conditional request, may be null
+     * @return the result; if {@code notModified} is set {@code target} was not touched
+     * @throws IOException if the entry could not be extracted within maxAttempts
+     */
+    Result extract(String url, String entryName, File target, String etag, String lastModified)
+            throws IOException {
+        long started = System.nanoTime();
+        IOException failure = null;
+
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            HttpURLConnection conn = openConnection(url);
+            if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null) conn.setRequestProperty("If-Modified-Since", lastModified);
+
+            try {
+                int status = conn.getResponseCode();
+                Result result = newResult(conn);
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    result.notModified = true;
+                    return result;
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new HttpStatusException(status, url);
+                }
+
+                long total = conn.getContentLengthLong();
+                CountingInputStream counted = new CountingInputStream(conn.getInputStream());
+                // ZipInputStream reads 512 bytes at a time; keep that off the socket.
+                ZipInputStream zip = new ZipInputStream(new BufferedInputStream(counted, 64 * 1024));
+                try {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        String name = entry.getName();
+                        name = name.substring(name.lastIndexOf('/') + 1);
+                        if (!entry.isDirectory() && name.equals(entryName)) {
+                            MessageDigest digest = BinaryManifest.newDigest();
+                            result.bytes = inflate(zip, target, digest, counted, total, started);
+                            result.sha256 = BinaryManifest.toHex(digest.digest());
+                            return result;
+                        }
+                    }
+                } finally {
+                    zip.close();
+                }
+                throw new IOException("Archive at " + url + " does not contain " + entryName);
+            } catch (IOException e) {
+                if (!retriable(e)) throw e;
+                failure = e;
+            } finally {
+                conn.disconnect();
+            }
+        }
+        throw failure;
+    }
+
+    private long inflate(InputStream in, File target, MessageDigest digest, CountingInputStream counted,
+                         long total, long started) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                digest.update(buffer, 0, n);
+                written += n;
+                if (listener != null) {
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    listener.onProgress(counted.count, total, seconds > 0 ? counted.count / seconds : 0);
+                }
+            }
+            out.flush();
+            return written;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A dropped connection or a failing server may recover; a 4xx response would only repeat.
+     */
+    private static boolean retriable(IOException e) {
+        return !(e instanceof HttpStatusException) || ((HttpStatusException) e).status >= 500;
+    }
+
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    private static Result newResult(HttpURLConnection conn) {
+        Result result = new Result();
+        result.etag = conn.getHeaderField("ETag");
+        result.lastModified = conn.getHeaderField("Last-Modified");
+        return result;
+    }
+
+    private long transfer(InputStream in, File target, long offset, long total, long startOffset,
+                          long started) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            out.truncate(offset);
+            long position = offset;
+            long n;
+            while ((n = out.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+                position += n;
+                if (listener != null) {
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    listener.onProgress(position, total, seconds > 0 ? (position - startOffset) / seconds : 0);
+                }
+            }
+            out.force(false);
+            return position;
+        } finally {
+            out.close();
+            source.close();
+        }
+    }
+
+    /**
+     * Counts the compressed bytes read from the connection, for progress reporting.
+     */
+    private static class CountingInputStream extends java.io.FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
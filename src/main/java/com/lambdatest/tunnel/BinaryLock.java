@@ -0,0 +1,74 @@
+package com.lambdatest.tunnel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on the binary cache directory, held while the binary is downloaded or replaced.
+ * Other processes are kept out with a {@link FileLock}. Since a JVM may only hold one file lock
+ * per file, threads of the same JVM are first serialised on a plain lock.
+ */
+final class BinaryLock implements Closeable {
+
+    static final String FILE_NAME = ".LT.lock";
+
+    private static final ConcurrentMap<String, ReentrantLock> LOCAL_LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final ReentrantLock localLock;
+    private final RandomAccessFile file;
+    private final FileLock fileLock;
+
+    private BinaryLock(ReentrantLock localLock, RandomAccessFile file, FileLock fileLock) {
+        this.localLock = localLock;
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until the cache directory can be locked exclusively.
+     *
+     * @param dir the binary cache directory
+     * @return the held lock, to be closed by the caller
+     */
+    static BinaryLock acquire(String dir) throws IOException {
+        File lockFile = new File(dir, FILE_NAME);
+        String key = lockFile.getCanonicalPath();
+        ReentrantLock localLock = LOCAL_LOCKS.get(key);
+        if (localLock == null) {
+            ReentrantLock created = new ReentrantLock();
+            localLock = LOCAL_LOCKS.putIfAbsent(key, created);
+            if (localLock == null) localLock = created;
+        }
+
+        localLock.lock();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            return new BinaryLock(localLock, file, file.getChannel().lock());
+        } catch (IOException e) {
+            if (file != null) file.close();
+            localLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            if (file != null) file.close();
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            file.close();
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
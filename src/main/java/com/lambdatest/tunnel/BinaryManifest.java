@@ -0,0 +1,177 @@
+package com.lambdatest.tunnel;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Describes a cached LambdaTest tunnel binary. Stored as a properties file next to the binary so
+ * that later runs can tell whether the binary on disk is the one that was downloaded and when the
+ * download server was last asked about it.
+ */
+class BinaryManifest {
+
+    static final String SUFFIX = ".manifest";
+
+    /** version reported by --version, null until the binary has been validated */
+    String version;
+    long size = -1;
+    String sha256;
+    String etag;
+    String lastModified;
+    /** when the download server last confirmed the binary, in epoch milliseconds */
+    long checkedAt;
+    /** modification time of the binary when {@link #version} was read from it */
+    long validatedMtime;
+    /** checksum of the bundled zip the binary was installed from, null if it was downloaded */
+    String bundle;
+
+    /**
+     * Loads the manifest stored next to the given binary.
+     *
+     * @param binary the binary the manifest describes
+     * @return the manifest, or null if it is missing or unreadable
+     */
+    static BinaryManifest load(File binary) {
+        File file = fileFor(binary);
+        if (!file.isFile()) return null;
+
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        BinaryManifest manifest = new BinaryManifest();
+        manifest.version = props.getProperty("version");
+        manifest.sha256 = props.getProperty("sha256");
+        manifest.etag = props.getProperty("etag");
+        manifest.lastModified = props.getProperty("lastModified");
+        manifest.bundle = props.getProperty("bundle");
+        try {
+            manifest.size = Long.parseLong(props.getProperty("size", "-1"));
+            manifest.checkedAt = Long.parseLong(props.getProperty("checkedAt", "0"));
+            manifest.validatedMtime = Long.parseLong(props.getProperty("validatedMtime", "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return manifest.sha256 != null ? manifest : null;
+    }
+
+    /**
+     * Writes the manifest next to the given binary. The file is written to a temporary sibling
+     * first and then atomically renamed, so a reader never sees a half written manifest.
+     *
+     * @param binary the binary the manifest describes
+     */
+    void save(File binary) throws IOException {
+        Properties props = new Properties();
+        setIfPresent(props, "version", version);
+        setIfPresent(props, "sha256", sha256);
+        setIfPresent(props, "etag", etag);
+        setIfPresent(props, "lastModified", lastModified);
+        setIfPresent(props, "bundle", bundle);
+        props.setProperty("size", String.valueOf(size));
+        props.setProperty("checkedAt", String.valueOf(checkedAt));
+        props.setProperty("validatedMtime", String.valueOf(validatedMtime));
+
+        File file = fileFor(binary);
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                props.store(out, "LambdaTest tunnel binary cache");
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Checks that the binary on disk is the one this manifest was written for.
+     *
+     * @param binary the binary to verify
+     * @return true if size and SHA-256 both match
+     */
+    boolean describes(File binary) {
+        if (!binary.isFile() || binary.length() != size) return false;
+        try {
+            return sha256.equalsIgnoreCase(sha256(binary));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param ttl time in milliseconds a successful check against the server stays valid
+     * @return true if the server does not need to be asked again yet
+     */
+    boolean isFresh(long ttl) {
+        long age = System.currentTimeMillis() - checkedAt;
+        return age >= 0 && age < ttl;
+    }
+
+    static void delete(File binary) {
+        fileFor(binary).delete();
+    }
+
+    static File fileFor(File binary) {
+        return new File(binary.getPath() + SUFFIX);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+                // digest is updated as a side effect of reading
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void setIfPresent(Properties props, String key, String value) {
+        if (value != null) props.setProperty(key, value);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.lambdatest.tunnel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tunnel zips packaged on the classpath, as built by the {@code bundle-binaries} profile into the
+ * {@code binaries} classifier artifact. Each zip sits under {@link #RESOURCE_ROOT} at the same path
+ * as on the download server, next to a {@code .sha256} file holding its checksum. Installing from
+ * the bundle needs no network, so agents without egress can run tunnels.
+ */
+final class BundledBinary {
+
+    static final String RESOURCE_ROOT = "com/lambdatest/tunnel/bundled/";
+    static final String CHECKSUM_SUFFIX = ".sha256";
+
+    static final String ENABLED_PROPERTY = "lambdatest.tunnel.bundledBinary";
+
+    private final ClassLoader loader;
+
+    BundledBinary(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return the bundle on the library's classpath, or null if disabled with the
+     * {@code lambdatest.tunnel.bundledBinary} system property
+     */
+    static BundledBinary fromClasspath() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) return null;
+        ClassLoader loader = BundledBinary.class.getClassLoader();
+        return new BundledBinary(loader != null ? loader : ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * @param zipPath path of the zip on the download server, e.g. {@code linux/64bit/LT_Linux.zip}
+     * @return the SHA-256 of the bundled zip, or null if it is not bundled
+     */
+    String checksum(String zipPath) throws IOException {
+        InputStream in = loader.getResourceAsStream(RESOURCE_ROOT + zipPath + CHECKSUM_SUFFIX);
+        if (in == null) return null;
+        try {
+            String line = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII)).readLine();
+            if (line == null || line.trim().isEmpty()) {
+                throw new IOException("Empty checksum for bundled " + zipPath);
+            }
+            return line.trim().split("\\s+")[0].toLowerCase();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Extracts the entry named {@code entryName} of the bundled zip into {@code target}. The whole
+     * zip is read and checked against its bundled checksum before the result is returned.
+     *
+     * @return the result, with {@code etag} and {@code lastModified} unset, or null if the zip is
+     * not bundled
+     * @throws IOException if the zip does not match its checksum or lacks the entry
+     */
+    BinaryDownloader.Result install(String zipPath, String entryName, File target) throws IOException {
+        String expected = checksum(zipPath);
+        if (expected == null) return null;
+        InputStream resource = loader.getResourceAsStream(RESOURCE_ROOT + zipPath);
+        if (resource == null) return null;
+
+        MessageDigest zipDigest = BinaryManifest.newDigest();
+        MessageDigest entryDigest = BinaryManifest.newDigest();
+        BinaryDownloader.Result result = null;
+        byte[] buffer = new byte[64 * 1024];
+        InputStream digested = new DigestInputStream(resource, zipDigest);
+        ZipInputStream zip = new ZipInputStream(digested);
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                name = name.substring(name.lastIndexOf('/') + 1);
+                if (result == null && !entry.isDirectory() && name.equals(entryName)) {
+                    result = new BinaryDownloader.Result();
+                    result.bytes = write(zip, target, entryDigest, buffer);
+                    result.sha256 = BinaryManifest.toHex(entryDigest.digest());
+                }
+            }
+            // the central directory follows the last entry and is part of the checksum
+            while (digested.read(buffer) != -1) {
+                // digest is updated as a side effect of reading
+            }
+        } finally {
+            zip.close();
+        }
+
+        String actual = BinaryManifest.toHex(zipDigest.digest());
+        if (!actual.equals(expected)) {
+            target.delete();
+            throw new IOException("Bundled " + zipPath + " does not match its checksum");
+        }
+        if (result == null) {
+            throw new IOException("Bundled " + zipPath + " does not contain " + entryName);
+        }
+        return result;
+    }
+
+    private static long write(InputStream in, File target, MessageDigest digest, byte[] buffer) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                digest.update(buffer, 0, n);
+                written += n;
+            }
+            return written;
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass JSON scanner for the info API response. Instead of building a tree it reports every
+ * scalar value with the name of the member holding it, at any depth, so a poll allocates little
+ * more than the values that are actually used.
+ */
+final class InfoParser {
+
+    /**
+     * Receives the scalar members of the document.
+     */
+    interface Handler {
+        /**
+         * @param key   name of the member, or null for array elements
+         * @param value the value; numbers and booleans are passed in their JSON spelling, null as null
+         */
+        void value(String key, String value);
+    }
+
+    private final Reader in;
+    private final Handler handler;
+    private final StringBuilder buffer = new StringBuilder(32);
+    private int peeked = -2;
+
+    private InfoParser(Reader in, Handler handler) {
+        this.in = in;
+        this.handler = handler;
+    }
+
+    static void parse(Reader in, Handler handler) throws IOException {
+        InfoParser parser = new InfoParser(in, handler);
+        parser.value(null);
+        if (parser.skipWhitespace() != -1) {
+            throw parser.error("trailing content");
+        }
+    }
+
+    private void value(String key) throws IOException {
+        int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                read();
+                object();
+                break;
+            case '[':
+                read();
+                array();
+                break;
+            case '"':
+                read();
+                handler.value(key, string());
+                break;
+            case -1:
+                throw error("unexpected end of input");
+            default:
+                String literal = literal();
+                handler.value(key, "null".equals(literal) ? null : literal);
+        }
+    }
+
+    private void object() throws IOException {
+        if (skipWhitespace() == '}') {
+            read();
+            return;
+        }
+        while (true) {
+            if (skipWhitespace() != '"') throw error("expected member name");
+            read();
+            String name = string();
+            if (skipWhitespace() != ':') throw error("expected ':'");
+            read();
+            value(name);
+            int c = skipWhitespace();
+            read();
+            if (c == '}') return;
+            if (c != ',') throw error("expected ',' or '}'");
+        }
+    }
+
+    private void array() throws IOException {
+        if (skipWhitespace() == ']') {
+            read();
+            return;
+        }
+        while (true) {
+            value(null);
+            int c = skipWhitespace();
+            read();
+            if (c == ']') return;
+            if (c != ',') throw error("expected ',' or ']'");
+        }
+    }
+
+    private String string() throws IOException {
+        buffer.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) throw error("unterminated string");
+            if (c == '"') return buffer.toString();
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n': buffer.append('\n'); break;
+                    case 't': buffer.append('\t'); break;
+                    case 'r': buffer.append('\r'); break;
+                    case 'b': buffer.append('\b'); break;
+                    case 'f': buffer.append('\f'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) throw error("bad unicode escape");
+                            code = code * 16 + digit;
+                        }
+                        buffer.append((char) code);
+                        break;
+                    case -1:
+                        throw error("unterminated string");
+                    default:
+                        buffer.append((char) c);
+                }
+            } else {
+                buffer.append((char) c);
+            }
+        }
+    }
+
+    private String literal() throws IOException {
+        buffer.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            buffer.append((char) read());
+        }
+        if (buffer.length() == 0) throw error("expected value");
+        return buffer.toString();
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            read();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) peeked = in.read();
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed info API response: " + message);
+    }
+}
@@ -0,0 +1,64 @@
+package com.lambdatest.tunnel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads behind {@link TunnelExecutors}. This is the version for Java 11 to 20, running on pools
+ * of platform threads; the multi-release jar replaces it with one running on virtual threads on
+ * Java 21 and later.
+ */
+final class IoThreads {
+
+    static final String MAX_THREADS_PROPERTY = "lambdatest.tunnel.ioThreads";
+
+    private static final int DEFAULT_MAX_THREADS = 256;
+
+    private IoThreads() {
+    }
+
+    /**
+     * The I/O pool. Work is never queued: a process may block writing one pipe until the pump of
+     * the other one has finished, so a pump waiting in a queue behind it would never run. Up to
+     * {@code lambdatest.tunnel.ioThreads} threads are kept for reuse, and work beyond that gets a
+     * thread of its own that ends with it. Idle threads are let go after a minute.
+     */
+    static ExecutorService newExecutor() {
+        final ThreadFactory overflow = TunnelExecutors.daemonThreads("lambdatest-tunnel-io-overflow");
+        return new ThreadPoolExecutor(0, maxThreads(), 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                TunnelExecutors.daemonThreads("lambdatest-tunnel-io"), (task, pool) -> {
+                    if (pool.isShutdown()) throw new RejectedExecutionException("I/O pool is shut down");
+                    overflow.newThread(task).start();
+                });
+    }
+
+    /**
+     * A pool of at most {@code lambdatest.tunnel.ioThreads} threads for asynchronous starts and
+     * stops. Work beyond that waits in a queue instead of being rejected. The tasks wait on the
+     * I/O pool, so they must not take threads from it.
+     */
+    static ExecutorService newTaskExecutor() {
+        int max = maxThreads();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(max, max, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), TunnelExecutors.daemonThreads("lambdatest-tunnel-task"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int maxThreads() {
+        return Math.max(2, Integer.getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS));
+    }
+
+    /**
+     * @return future completed when the process exits
+     */
+    static CompletableFuture<?> onExit(ProcessHandle process) {
+        return process.onExit();
+    }
+}
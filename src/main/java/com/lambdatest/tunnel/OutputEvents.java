@@ -0,0 +1,162 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Watches the output of a starting binary for its first state event. Both pipes are scanned as
+ * bytes arrive; JSON objects are picked out by brace depth, so they may span several lines and be
+ * surrounded by other output. The start resolves as soon as an object with a {@code state} member
+ * is complete, without waiting for the pipes to close. The pipes keep being drained in the
+ * background afterwards and the process is reaped once both are closed.
+ */
+final class OutputEvents {
+
+    private static final int MAX_TEXT = 4096;
+
+    private final CompletableFuture<JSONObject> state = new CompletableFuture<JSONObject>();
+    private final AtomicInteger openPipes = new AtomicInteger(2);
+    private final StringBuilder text = new StringBuilder();
+    private final Tunnel.TunnelProcess process;
+
+    private OutputEvents(Tunnel.TunnelProcess process) {
+        this.process = process;
+    }
+
+    /**
+     * Starts scanning both pipes of the process on the library's I/O threads.
+     */
+    static OutputEvents watch(Tunnel.TunnelProcess process) {
+        OutputEvents events = new OutputEvents(process);
+        events.pump(process.getInputStream());
+        events.pump(process.getErrorStream());
+        return events;
+    }
+
+    /**
+     * Waits for the first state event.
+     *
+     * @param timeoutMillis time to wait, 0 to wait indefinitely
+     * @return the event
+     * @throws java.util.concurrent.TimeoutException if no event arrived in time
+     * @throws TunnelException if the binary closed its output without reporting a state
+     */
+    JSONObject await(long timeoutMillis) throws Exception {
+        try {
+            return timeoutMillis > 0 ? state.get(timeoutMillis, TimeUnit.MILLISECONDS) : state.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private void pump(final InputStream in) {
+        TunnelExecutors.io().execute(new Runnable() {
+            public void run() {
+                try {
+                    scan(in);
+                } catch (IOException e) {
+                    // pipe closed under us, e.g. by destroy(); treated as end of output
+                } finally {
+                    closed();
+                }
+            }
+        });
+    }
+
+    private void scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        byte[] object = new byte[1024];
+        int length = 0;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (depth == 0) {
+                        if (b == '{') {
+                            depth = 1;
+                            length = 0;
+                            object[length++] = b;
+                        } else {
+                            appendText(b);
+                        }
+                        continue;
+                    }
+
+                    if (length == object.length) {
+                        object = Arrays.copyOf(object, object.length * 2);
+                    }
+                    object[length++] = b;
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{') {
+                        depth++;
+                    } else if (b == '}' && --depth == 0) {
+                        event(new String(object, 0, length, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void event(String json) {
+        if (state.isDone()) return;
+        try {
+            JSONObject obj = new JSONObject(json);
+            if (obj.has("state")) {
+                state.complete(obj);
+            }
+        } catch (JSONException e) {
+            synchronized (text) {
+                if (text.length() < MAX_TEXT) text.append(json);
+            }
+        }
+    }
+
+    private void appendText(byte b) {
+        if (state.isDone()) return;
+        synchronized (text) {
+            if (text.length() < MAX_TEXT) text.append((char) (b & 0xff));
+        }
+    }
+
+    private void closed() {
+        if (openPipes.decrementAndGet() != 0) return;
+        if (!state.isDone()) {
+            String output;
+            synchronized (text) {
+                output = text.toString().trim();
+            }
+            state.completeExceptionally(new TunnelException(
+                    "LambdaTest tunnel exited without reporting its state" + (output.isEmpty() ? "" : ": " + output)));
+        }
+        try {
+            process.waitFor();
+        } catch (Exception ignored) {
+            // nothing left to reap
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the phases of a tunnel start. Every phase is committed as a {@link TunnelPhaseEvent},
+ * reported to the lifecycle listeners and summed up for the {@link StartupReport}. Download
+ * progress is passed on to the lifecycle listeners as well.
+ */
+final class PhaseRecorder implements BinaryDownloader.ProgressListener {
+
+    private final Tunnel tunnel;
+    private final String tunnelName;
+    private final List<TunnelLifecycleListener> listeners;
+    private final Map<StartupPhase, Long> nanos = new EnumMap<StartupPhase, Long>(StartupPhase.class);
+
+    /**
+     * Recorder that only emits Flight Recorder events.
+     */
+    PhaseRecorder() {
+        this(null, null, Collections.<TunnelLifecycleListener>emptyList());
+    }
+
+    PhaseRecorder(Tunnel tunnel, String tunnelName, List<TunnelLifecycleListener> listeners) {
+        this.tunnel = tunnel;
+        this.tunnelName = tunnelName;
+        this.listeners = listeners;
+    }
+
+    Span begin(StartupPhase phase) {
+        return new Span(phase);
+    }
+
+    synchronized StartupReport report(long totalNanos) {
+        return new StartupReport(nanos, totalNanos);
+    }
+
+    public void onProgress(long bytesRead, long totalBytes, double bytesPerSecond) {
+        if (tunnel == null) return;
+        for (TunnelLifecycleListener listener : listeners) {
+            listener.onDownloadProgress(tunnel, bytesRead, totalBytes, bytesPerSecond);
+        }
+    }
+
+    private void record(StartupPhase phase, long duration) {
+        synchronized (this) {
+            Long previous = nanos.get(phase);
+            nanos.put(phase, previous != null ? previous + duration : duration);
+        }
+        if (tunnel == null) return;
+        for (TunnelLifecycleListener listener : listeners) {
+            listener.onPhase(tunnel, phase, Duration.ofNanos(duration));
+        }
+    }
+
+    /**
+     * A running phase; {@link #end()} must be called exactly once.
+     */
+    final class Span {
+        private final StartupPhase phase;
+        private final TunnelPhaseEvent event = new TunnelPhaseEvent();
+        private final long started = System.nanoTime();
+
+        private Span(StartupPhase phase) {
+            this.phase = phase;
+            event.begin();
+        }
+
+        void end() {
+            long duration = System.nanoTime() - started;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.name();
+                event.tunnelName = tunnelName;
+                event.commit();
+            }
+            record(phase, duration);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks, before the binary is launched, that the local targets named in the options are there:
+ * that hosts resolve, that host:port targets and the upstream proxy accept connections, and that
+ * the port the tunnel's own proxy is to listen on is free. All checks run at the same time under
+ * one deadline, while the binary is being resolved, so a healthy setup costs no start time.
+ * <p>
+ * Enabled with the {@code preflight} option: {@code true} checks the targets found in
+ * {@code localDomains}, {@code port}, {@code dns} and the proxy options, and a comma-separated
+ * list of {@code host:port} targets, such as the app under test, is checked in addition. The
+ * deadline is set with {@code preflightTimeout} in milliseconds.
+ */
+final class Preflight {
+
+    static final String OPTION = "preflight";
+    static final String TIMEOUT_OPTION = "preflightTimeout";
+    static final long DEFAULT_TIMEOUT = 2000;
+
+    private final List<Check> checks;
+    private final long timeout;
+    private final long deadline;
+    private final List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+
+    private Preflight(List<Check> checks, long timeout) {
+        this.checks = checks;
+        this.timeout = timeout;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (final Check check : checks) {
+            results.add(CompletableFuture.supplyAsync(() -> check.run(deadline), TunnelExecutors.io()));
+        }
+    }
+
+    /**
+     * Starts the checks the options ask for.
+     *
+     * @return the running preflight, or null if the options do not enable it
+     */
+    static Preflight start(TunnelOptions options) {
+        String value = trim(options.get(OPTION));
+        if (value == null || value.isEmpty() || value.equalsIgnoreCase("false")) return null;
+
+        List<Check> checks = new ArrayList<Check>();
+        if (!value.equalsIgnoreCase("true")) {
+            for (String target : split(value)) {
+                checks.add(Check.of("target", target));
+            }
+        }
+        for (String domain : split(options.get("localDomains"))) {
+            checks.add(Check.of("local domain", domain));
+        }
+        for (String server : split(options.get("dns"))) {
+            checks.add(new Check("DNS server", host(server), -1, Check.Kind.RESOLVE));
+        }
+        String proxyHost = trim(options.get("proxyHost"));
+        String proxyPort = trim(options.get("proxyPort"));
+        if (proxyHost != null && proxyPort != null) {
+            checks.add(new Check("proxy", proxyHost, Integer.parseInt(proxyPort), Check.Kind.CONNECT));
+        } else if (proxyHost != null) {
+            checks.add(new Check("proxy", proxyHost, -1, Check.Kind.RESOLVE));
+        }
+        String port = trim(options.get("port"));
+        if (port != null) {
+            checks.add(new Check("tunnel port", null, Integer.parseInt(port), Check.Kind.FREE));
+        }
+
+        String timeout = trim(options.get(TIMEOUT_OPTION));
+        return new Preflight(checks, timeout != null ? Long.parseLong(timeout) : DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Waits for the checks, at most until the deadline.
+     *
+     * @throws TunnelException naming every target that failed or did not answer in time
+     */
+    void await() throws TunnelException, InterruptedException {
+        List<String> failures = new ArrayList<String>();
+        for (int i = 0; i < checks.size(); i++) {
+            String failure;
+            try {
+                failure = results.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                failure = checks.get(i) + ": no answer within " + timeout + "ms";
+            } catch (ExecutionException e) {
+                failure = checks.get(i) + ": " + e.getCause();
+            }
+            if (failure != null) failures.add(failure);
+        }
+        if (!failures.isEmpty()) {
+            throw new TunnelException("Preflight of LambdaTest tunnel failed: " + String.join("; ", failures));
+        }
+    }
+
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<String>();
+        if (value == null) return parts;
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) parts.add(part.trim());
+        }
+        return parts;
+    }
+
+    private static String host(String target) {
+        int colon = target.lastIndexOf(':');
+        // a bare IPv6 address has several colons and no port
+        return colon > 0 && target.indexOf(':') == colon ? target.substring(0, colon) : target;
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : null;
+    }
+
+    private static final class Check {
+
+        enum Kind {
+            /** the host resolves */
+            RESOLVE,
+            /** the host resolves and the port accepts a connection */
+            CONNECT,
+            /** nothing listens on the port yet */
+            FREE
+        }
+
+        final String role;
+        final String host;
+        final int port;
+        final Kind kind;
+
+        Check(String role, String host, int port, Kind kind) {
+            this.role = role;
+            this.host = host;
+            this.port = port;
+            this.kind = kind;
+        }
+
+        /**
+         * @param target {@code host:port} to connect to, or a bare host to resolve
+         */
+        static Check of(String role, String target) {
+            int colon = target.lastIndexOf(':');
+            if (colon > 0 && target.indexOf(':') == colon) {
+                try {
+                    int port = Integer.parseInt(target.substring(colon + 1));
+                    return new Check(role, target.substring(0, colon), port, Kind.CONNECT);
+                } catch (NumberFormatException e) {
+                    // not a port; resolve the whole target
+                }
+            }
+            return new Check(role, target, -1, Kind.RESOLVE);
+        }
+
+        /**
+         * @return why the check failed, or null if it passed
+         */
+        String run(long deadline) {
+            try {
+                if (kind == Kind.FREE) {
+                    new ServerSocket(port).close();
+                    return null;
+                }
+                InetAddress address = InetAddress.getByName(host);
+                if (kind == Kind.RESOLVE) return null;
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) return this + ": no answer in time";
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(address, port), (int) Math.min(Integer.MAX_VALUE, remaining));
+                } finally {
+                    socket.close();
+                }
+                return null;
+            } catch (UnknownHostException e) {
+                return this + ": does not resolve";
+            } catch (SocketTimeoutException e) {
+                return this + ": no answer in time";
+            } catch (IOException e) {
+                return this + (kind == Kind.FREE ? ": already in use" : ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (kind == Kind.FREE) return role + " " + port;
+            return role + " " + (port >= 0 ? host + ":" + port : host);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.lambdatest.tunnel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Output of a finished tunnel process. Both pipes are drained at the same time, so a child that
+ * fills one pipe while the other is being read cannot block.
+ */
+final class ProcessOutput {
+
+    final String stdout;
+    final String stderr;
+    final int exitCode;
+
+    private ProcessOutput(String stdout, String stderr, int exitCode) {
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Reads the process output to the end and waits for it to exit.
+     *
+     * @param process       the launched process
+     * @param timeoutMillis time to wait for both pipes to close, 0 to wait indefinitely
+     * @return the collected output
+     * @throws TimeoutException if the pipes did not close in time; the process is destroyed
+     */
+    static ProcessOutput collect(Tunnel.TunnelProcess process, long timeoutMillis) throws Exception {
+        Future<String> stdout = TunnelExecutors.io().submit(reader(process.getInputStream()));
+        Future<String> stderr = TunnelExecutors.io().submit(reader(process.getErrorStream()));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            String out = await(stdout, timeoutMillis, deadline);
+            String err = await(stderr, timeoutMillis, deadline);
+            return new ProcessOutput(out, err, process.waitFor());
+        } catch (TimeoutException e) {
+            process.destroy();
+            throw e;
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        }
+    }
+
+    private static String await(Future<String> pipe, long timeoutMillis, long deadline) throws Exception {
+        try {
+            if (timeoutMillis <= 0) {
+                return pipe.get();
+            }
+            return pipe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static Callable<String> reader(final InputStream in) {
+        return new Callable<String>() {
+            public String call() throws IOException {
+                BufferedReader br = new BufferedReader(new InputStreamReader(in));
+                try {
+                    StringBuilder sb = new StringBuilder();
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        sb.append(line);
+                    }
+                    return sb.toString();
+                } finally {
+                    br.close();
+                }
+            }
+        };
+    }
+}
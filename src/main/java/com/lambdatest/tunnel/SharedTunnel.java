@@ -0,0 +1,129 @@
+package com.lambdatest.tunnel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * One tunnel shared by a whole test run, as used by the JUnit and TestNG integrations. It is
+ * started in the background as early as possible with {@link #start()}, tests that need it wait
+ * for the connection with {@link #await()}, and it is stopped once at the end of the run with
+ * {@link #stop()}. All methods are safe to call from parallel tests.
+ * <p>
+ * {@link #get()} configures the tunnel from the environment: the key from {@code LT_ACCESS_KEY},
+ * the user from {@code LT_USERNAME}, and any option, these two included, from a system property
+ * named {@code lambdatest.tunnel.option.<name>}, e.g.
+ * {@code -Dlambdatest.tunnel.option.tunnelName=ci-42}.
+ */
+public final class SharedTunnel {
+
+    public static final String OPTION_PREFIX = "lambdatest.tunnel.option.";
+
+    private static SharedTunnel instance;
+
+    private final TunnelOptions options;
+    private final Tunnel tunnel;
+
+    // guarded by this
+    private CompletableFuture<Tunnel> started;
+    private boolean stopped;
+
+    /**
+     * @param options options the tunnel is started with
+     * @param tunnel  the Tunnel instance to start
+     */
+    public SharedTunnel(TunnelOptions options, Tunnel tunnel) {
+        this.options = options;
+        this.tunnel = tunnel;
+    }
+
+    /**
+     * @return the tunnel of this JVM's test run, configured from the environment
+     * @throws IllegalStateException if no key is configured
+     */
+    public static synchronized SharedTunnel get() {
+        if (instance == null) {
+            Map<String, String> options = environmentOptions();
+            if (options.get("key") == null) {
+                throw new IllegalStateException("No LambdaTest access key: set LT_ACCESS_KEY or -D"
+                        + OPTION_PREFIX + "key");
+            }
+            instance = new SharedTunnel(TunnelOptions.of(options), new Tunnel());
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if {@link #get()} finds a key to start the tunnel with
+     */
+    public static synchronized boolean isConfigured() {
+        return instance != null || environmentOptions().get("key") != null;
+    }
+
+    private static Map<String, String> environmentOptions() {
+        Map<String, String> options = new HashMap<String, String>();
+        if (System.getenv("LT_USERNAME") != null) options.put("user", System.getenv("LT_USERNAME"));
+        if (System.getenv("LT_ACCESS_KEY") != null) options.put("key", System.getenv("LT_ACCESS_KEY"));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(OPTION_PREFIX) && name.length() > OPTION_PREFIX.length()) {
+                options.put(name.substring(OPTION_PREFIX.length()), System.getProperty(name));
+            }
+        }
+        return options;
+    }
+
+    public TunnelOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Starts the tunnel in the background unless that was done already.
+     *
+     * @return future completed with the tunnel once it is connected
+     */
+    public synchronized CompletableFuture<Tunnel> start() {
+        if (stopped) {
+            throw new IllegalStateException("The shared tunnel was stopped already");
+        }
+        if (started == null) {
+            started = tunnel.startAsync(options);
+        }
+        return started;
+    }
+
+    /**
+     * Starts the tunnel if needed and waits until it is connected.
+     *
+     * @return the connected tunnel
+     * @throws Exception why the tunnel did not connect; every caller gets the same failure
+     */
+    public Tunnel await() throws Exception {
+        try {
+            return start().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the tunnel if it was started. Later calls do nothing.
+     */
+    public void stop() throws Exception {
+        CompletableFuture<Tunnel> running;
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            running = started;
+        }
+        if (running == null) return;
+        try {
+            running.join();
+        } catch (Exception e) {
+            // never connected, nothing to stop
+            return;
+        }
+        tunnel.stop();
+    }
+}
@@ -0,0 +1,196 @@
+package com.lambdatest.tunnel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tunnel whose binary is simulated inside the JVM. It speaks the same protocol as the LT binary,
+ * printing {@code {"state":"connected","pid":...}} on start, but needs no LambdaTest account, no
+ * download and no network, so orchestration code can be load tested with hundreds of instances.
+ * <p>
+ * Connect latency, the share of failing starts and a crash some time after connecting can be
+ * configured. Simulated pids are unique within the JVM but are not OS processes.
+ */
+public class SimulatedTunnel extends Tunnel {
+
+    private static final ScheduledExecutorService CRASHES =
+            Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-simulator"));
+    private static final AtomicInteger PIDS = new AtomicInteger(4000000);
+    private static final ConcurrentMap<Integer, CompletableFuture<Integer>> PROCESSES =
+            new ConcurrentHashMap<Integer, CompletableFuture<Integer>>();
+
+    private volatile long connectLatency = 0;
+    private volatile long connectJitter = 0;
+    private volatile double failureRate = 0;
+    private volatile long crashAfter = 0;
+
+    /**
+     * @param millis time the simulated binary takes to report the connection
+     */
+    public void setConnectLatency(long millis) {
+        this.connectLatency = millis;
+    }
+
+    /**
+     * @param millis upper bound of a random delay added to the connect latency
+     */
+    public void setConnectJitter(long millis) {
+        this.connectJitter = millis;
+    }
+
+    /**
+     * @param failureRate probability between 0 and 1 that a start reports an error
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param millis time after connecting at which the simulated tunnel dies, 0 for never
+     */
+    public void setCrashAfter(long millis) {
+        this.crashAfter = millis;
+    }
+
+    @Override
+    public void start(TunnelOptions options) throws Exception {
+        super.start(simulated(options));
+    }
+
+    @Override
+    public void stop(TunnelOptions options) throws Exception {
+        super.stop(simulated(options));
+    }
+
+    private static TunnelOptions simulated(TunnelOptions options) {
+        if (options.getBinaryPath() != null) return options;
+        return options.toBuilder().binaryPath("simulated-LT").build();
+    }
+
+    @Override
+    protected TunnelProcess runCommand(List<String> command) throws IOException {
+        String opCode = command.size() > 2 ? command.get(2) : "";
+        if ("stop".equals(opCode)) {
+            int stopped = pid;
+            CompletableFuture<Integer> process = PROCESSES.remove(stopped);
+            if (process != null) process.complete(0);
+            return new SimulatedProcess(new byte[0], 0);
+        }
+        if (!"start".equals(opCode)) {
+            return new SimulatedProcess(new byte[0], 0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = connectLatency + (connectJitter > 0 ? random.nextLong(connectJitter + 1) : 0);
+        String output;
+        if (random.nextDouble() < failureRate) {
+            output = "{\"state\":\"error\",\"message\":{\"message\":\"Simulated tunnel failed to connect\"}}";
+        } else {
+            final int simulatedPid = PIDS.incrementAndGet();
+            final CompletableFuture<Integer> process = new CompletableFuture<Integer>();
+            PROCESSES.put(simulatedPid, process);
+            if (crashAfter > 0) {
+                CRASHES.schedule(new Runnable() {
+                    public void run() {
+                        PROCESSES.remove(simulatedPid);
+                        process.complete(-1);
+                    }
+                }, latency + crashAfter, TimeUnit.MILLISECONDS);
+            }
+            output = "{\"state\":\"connected\",\"pid\":" + simulatedPid + "}";
+        }
+        return new SimulatedProcess(output.getBytes(StandardCharsets.UTF_8), latency);
+    }
+
+    @Override
+    protected CompletableFuture<?> watchProcess(int pid) {
+        CompletableFuture<Integer> process = PROCESSES.get(pid);
+        return process != null && !process.isDone() ? process : null;
+    }
+
+    @Override
+    protected boolean isProcessAlive(int pid) {
+        CompletableFuture<Integer> process = PROCESSES.get(pid);
+        return process != null && !process.isDone();
+    }
+
+    /**
+     * The launcher of the simulated binary: prints its JSON once the connect latency passed.
+     */
+    private static final class SimulatedProcess implements TunnelProcess {
+        private final CompletableFuture<Integer> exit = new CompletableFuture<Integer>();
+        private final InputStream stdout;
+        private final long readyAt;
+
+        SimulatedProcess(final byte[] output, long latency) {
+            this.readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latency);
+            this.stdout = new InputStream() {
+                private final InputStream data = new ByteArrayInputStream(output);
+
+                @Override
+                public int read() throws IOException {
+                    awaitReady();
+                    int b = data.read();
+                    if (b == -1) exit.complete(0);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    awaitReady();
+                    int n = data.read(b, off, len);
+                    if (n == -1) exit.complete(0);
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Blocks until the connect latency passed, or fails if the process was destroyed first.
+         */
+        private void awaitReady() throws IOException {
+            long remaining = readyAt - System.nanoTime();
+            if (remaining <= 0) return;
+            try {
+                exit.get(remaining, TimeUnit.NANOSECONDS);
+                throw new IOException("Stream closed");
+            } catch (TimeoutException e) {
+                // latency passed without the process being destroyed
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        public int waitFor() throws Exception {
+            return exit.get();
+        }
+
+        public void destroy() {
+            exit.complete(143);
+        }
+    }
+}
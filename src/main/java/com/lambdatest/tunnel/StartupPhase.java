@@ -0,0 +1,26 @@
+package com.lambdatest.tunnel;
+
+/**
+ * Phases of {@link Tunnel#start(java.util.Map)}, in the order they run.
+ */
+public enum StartupPhase {
+    /** choosing and creating the directory the binary is cached in */
+    RESOLVE_DIRECTORY,
+    /** waiting for another thread or process that holds the binary cache lock */
+    BINARY_LOCK,
+    /** downloading the binary, or asking the server whether the cached one is current */
+    DOWNLOAD,
+    /** extracting the downloaded zip; only when the binary is not inflated while downloading */
+    UNZIP,
+    /** running the binary with --version */
+    VALIDATE,
+    /**
+     * waiting for the preflight checks of local targets; only the part that did not overlap with
+     * resolving the binary, and only when the preflight option is set
+     */
+    PREFLIGHT,
+    /** launching the tunnel binary */
+    SPAWN,
+    /** waiting for the binary to report the tunnel as connected */
+    CONNECT
+}
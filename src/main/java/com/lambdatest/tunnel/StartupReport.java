@@ -0,0 +1,56 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Time spent in each phase of a {@link Tunnel#start(java.util.Map)}. Phases that did not run,
+ * for instance the download when the binary was cached, are absent.
+ */
+public final class StartupReport {
+
+    private final Map<StartupPhase, Duration> phases;
+    private final Duration total;
+
+    StartupReport(Map<StartupPhase, Long> nanos, long totalNanos) {
+        EnumMap<StartupPhase, Duration> durations = new EnumMap<StartupPhase, Duration>(StartupPhase.class);
+        for (Map.Entry<StartupPhase, Long> entry : nanos.entrySet()) {
+            durations.put(entry.getKey(), Duration.ofNanos(entry.getValue()));
+        }
+        this.phases = Collections.unmodifiableMap(durations);
+        this.total = Duration.ofNanos(totalNanos);
+    }
+
+    /**
+     * @return time spent in the phase, or {@link Duration#ZERO} if it did not run
+     */
+    public Duration getDuration(StartupPhase phase) {
+        Duration duration = phases.get(phase);
+        return duration != null ? duration : Duration.ZERO;
+    }
+
+    /**
+     * @return the phases that ran, in order, with their durations
+     */
+    public Map<StartupPhase, Duration> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return wall clock time of the whole start
+     */
+    public Duration getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("StartupReport{total=").append(total.toMillis()).append("ms");
+        for (Map.Entry<StartupPhase, Duration> entry : phases.entrySet()) {
+            sb.append(", ").append(entry.getKey()).append('=').append(entry.getValue().toMillis()).append("ms");
+        }
+        return sb.append('}').toString();
+    }
+}
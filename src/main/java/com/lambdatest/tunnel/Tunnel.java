@@ -1,11 +1,14 @@
 package com.lambdatest.tunnel;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 import org.json.*;
 
 /**
@@ -13,57 +16,38 @@ import org.json.*;
  */
 public class Tunnel {
 
-    private static final List<String> IGNORE_KEYS = Arrays.asList("key", "binarypath");
+    private static final long DEFAULT_TIMEOUT = 2 * 60 * 1000;
 
     List<String> command;
     Map<String, String> startOptions;
+    TunnelOptions options;
     String binaryPath;
-    int pid = 0;
+    String binaryVersion;
+    volatile int pid = 0;
+    private volatile int watchedPid = 0;
+    private volatile boolean running = false;
+    private final List<TunnelExitListener> exitListeners = new CopyOnWriteArrayList<TunnelExitListener>();
+    private final List<TunnelLifecycleListener> lifecycleListeners = new CopyOnWriteArrayList<TunnelLifecycleListener>();
+    private volatile StartupReport startupReport;
+    private volatile byte[] attachedKey;
+    private volatile boolean detaching = false;
+    // set by a deliberate stop or detach, so that TunnelSupervisor leaves the tunnel alone
+    volatile boolean stopRequested = false;
 
     private TunnelProcess proc = null;
+    private volatile TunnelProcess pending = null;
+    private volatile boolean cancelled = false;
+    private volatile long timeout = DEFAULT_TIMEOUT;
 
-    private final Map<String, String> parameters;
-    private final Map<String, String> voidValueParameters;
-
-    public Tunnel() {
-        voidValueParameters = new HashMap<String, String>();
-        voidValueParameters.put("v", "-v");
-        voidValueParameters.put("version", "-version");
-
-        parameters = new HashMap<String, String>();
-        parameters.put("config", "-config");
-        parameters.put("controller", "-controller");
-        parameters.put("cui", "-cui");
-        parameters.put("customSSHHost", "-customSSHHost");
-        parameters.put("customSSHPort", "-customSSHPort");
-        parameters.put("customSSHPrivateKey", "-customSSHPrivateKey");
-        parameters.put("customSSHUser", "-customSSHUser");
-        parameters.put("dir", "-dir");
-        parameters.put("dns", "-dns");
-        parameters.put("emulateChrome", "-emulateChrome");
-        parameters.put("env", "-env");
-        parameters.put("infoAPIPort", "-infoAPIPort");
-        parameters.put("key", "-key");
-        parameters.put("localDomains", "-local-domains");
-        parameters.put("logFile", "-logFile");
-        parameters.put("mode", "-mode");
-        parameters.put("nows", "-nows");
-        parameters.put("outputConfig", "-outputConfig");
-        parameters.put("pac", "-pac");
-        parameters.put("pidfile", "-pidfile");
-        parameters.put("port", "-port");
-        parameters.put("proxyHost", "-proxy-host");
-        parameters.put("proxyPass", "-proxy-pass");
-        parameters.put("proxyPort", "-proxy-port");
-        parameters.put("proxyUser", "-proxy-user");
-        parameters.put("remoteDebug", "-remote-debug");
-        parameters.put("server", "-server");
-        parameters.put("sharedTunnel", "-shared-tunnel");
-        parameters.put("tunnelName", "-tunnelName");
-        parameters.put("user", "-user");
-        parameters.put("v", "-v");
-        parameters.put("version", "-version");
-
+    /**
+     * Starts Tunnel instance with options
+     *
+     * @param options Options for the Tunnel instance
+     * @throws TunnelException if the key is missing or an option is invalid
+     * @throws Exception
+     */
+    public void start(Map<String, String> options) throws Exception {
+        start(options(options));
     }
 
     /**
@@ -72,138 +56,554 @@ public class Tunnel {
      * @param options Options for the Tunnel instance
      * @throws Exception
      */
-    public void start(Map<String, String> options) throws Exception {
-        startOptions = options;
-        if (options.get("binarypath") != null) {
-            binaryPath = options.get("binarypath");
+    public void start(TunnelOptions options) throws Exception {
+        long startedAt = System.nanoTime();
+        stopRequested = false;
+        PhaseRecorder phases = new PhaseRecorder(this, options.get("tunnelName"), lifecycleListeners);
+        this.options = options;
+        startOptions = options.asMap();
+        // checked while the binary is resolved
+        Preflight preflight = options.isOnlyCommand() ? null : Preflight.start(options);
+        if (options.getBinaryPath() != null) {
+            binaryPath = options.getBinaryPath();
         } else {
-            TunnelBinary lb = new TunnelBinary();
+            TunnelBinary lb = new TunnelBinary(phases);
             binaryPath = lb.getBinaryPath();
+            binaryVersion = lb.getVersion();
         }
 
-        makeCommand(options, "start");
+        command = options.command(binaryPath, "start");
 
-        if (options.get("onlyCommand") != null) return;
+        if (options.isOnlyCommand()) return;
 
-        if (proc == null) {
-            proc = runCommand(command);
-            BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            BufferedReader stderrbr = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-            String stdout="", stderr="", line;
-            while ((line = stdoutbr.readLine()) != null) {
-                stdout += line;
+        // a stopped, failed or cancelled start leaves pid at 0, so the instance can start again
+        if (pid == 0) {
+            if (preflight != null) {
+                PhaseRecorder.Span checks = phases.begin(StartupPhase.PREFLIGHT);
+                try {
+                    preflight.await();
+                } finally {
+                    checks.end();
+                }
             }
-            while ((line = stderrbr.readLine()) != null) {
-                stderr += line;
+
+            PhaseRecorder.Span spawn = phases.begin(StartupPhase.SPAWN);
+            try {
+                proc = runCommand(command);
+            } finally {
+                spawn.end();
+            }
+
+            PhaseRecorder.Span connect = phases.begin(StartupPhase.CONNECT);
+            try {
+                JSONObject obj = awaitState(proc);
+                if(!obj.getString("state").equals("connected")){
+                    throw new TunnelException(errorMessage(obj));
+                }
+                else {
+                    pid = obj.getInt("pid");
+                    watch(pid);
+                    Tunnels.register(this);
+                }
+            } finally {
+                connect.end();
+            }
+
+            startupReport = phases.report(System.nanoTime() - startedAt);
+            for (TunnelLifecycleListener listener : lifecycleListeners) {
+                listener.onStarted(this, startupReport);
+            }
+        }
+    }
+
+    /**
+     * Starts Tunnel instance with options without blocking the caller. The binary's output is
+     * drained on the library's I/O threads; only the waiting for it happens on the executor.
+     *
+     * @param options  Options for the Tunnel instance
+     * @param executor Executor the start is run on
+     * @return future completed with this Tunnel once it is connected. Cancelling it kills the
+     * launching binary.
+     */
+    public CompletableFuture<Tunnel> startAsync(final Map<String, String> options, Executor executor) {
+        return async(executor, new Operation() {
+            public void run() throws Exception {
+                start(options);
+            }
+        });
+    }
+
+    /**
+     * Starts Tunnel instance with options without blocking the caller, on the library's own
+     * threads.
+     *
+     * @see #startAsync(Map, Executor)
+     */
+    public CompletableFuture<Tunnel> startAsync(Map<String, String> options) {
+        return startAsync(options, TunnelExecutors.tasks());
+    }
+
+    /**
+     * Starts Tunnel instance with options without blocking the caller.
+     *
+     * @see #startAsync(Map, Executor)
+     */
+    public CompletableFuture<Tunnel> startAsync(final TunnelOptions options, Executor executor) {
+        return async(executor, new Operation() {
+            public void run() throws Exception {
+                start(options);
+            }
+        });
+    }
+
+    /**
+     * Starts Tunnel instance with options without blocking the caller, on the library's own
+     * threads.
+     *
+     * @see #startAsync(Map, Executor)
+     */
+    public CompletableFuture<Tunnel> startAsync(TunnelOptions options) {
+        return startAsync(options, TunnelExecutors.tasks());
+    }
+
+    /**
+     * Stops the Tunnel instance without blocking the caller.
+     *
+     * @param executor Executor the stop is run on
+     * @return future completed with this Tunnel once the binary confirmed the stop
+     */
+    public CompletableFuture<Tunnel> stopAsync(Executor executor) {
+        return async(executor, new Operation() {
+            public void run() throws Exception {
+                stop();
             }
-            int r = proc.waitFor();
+        });
+    }
+
+    /**
+     * Stops the Tunnel instance without blocking the caller, on the library's own threads.
+     *
+     * @see #stopAsync(Executor)
+     */
+    public CompletableFuture<Tunnel> stopAsync() {
+        return stopAsync(TunnelExecutors.tasks());
+    }
 
-            JSONObject obj = new JSONObject(!stdout.equals("") ? stdout : stderr);
-            if(!obj.getString("state").equals("connected")){
-                throw new TunnelException(obj.getJSONObject("message").getString("message"));
+    /**
+     * Attaches to a running tunnel started with the same options by any JVM on this machine, or
+     * starts it if there is none. The tunnels are tracked in a registry file in
+     * {@code ~/.lambdatest}, or the directory named by the {@code lambdatest.tunnel.registryDir}
+     * system property, which also counts the JVMs attached to each of them. Release the tunnel
+     * with {@link #detach()}; the last JVM to detach stops it.
+     *
+     * @param options Options for the Tunnel instance
+     * @throws TunnelException if the key is missing or an option is invalid
+     * @throws Exception
+     */
+    public void startOrAttach(Map<String, String> options) throws Exception {
+        startOrAttach(options(options));
+    }
+
+    /**
+     * Attaches to a running tunnel started with the same options, or starts it.
+     *
+     * @see #startOrAttach(Map)
+     */
+    public void startOrAttach(final TunnelOptions options) throws Exception {
+        if (attachedKey != null) {
+            throw new TunnelException("Tunnel instance is already attached");
+        }
+        stopRequested = false;
+        byte[] key = TunnelRegistry.keyOf(options.asMap());
+        int port = 0;
+        if (options.get("infoAPIPort") != null) {
+            port = Integer.parseInt(options.get("infoAPIPort").trim());
+        }
+        int attached = new TunnelRegistry().attach(key, port, this::isProcessAlive, new TunnelRegistry.Starter() {
+            public int start() throws Exception {
+                Tunnel.this.start(options);
+                return pid;
             }
-            else {
-                pid = obj.getInt("pid");
+        });
+        // the options the key was made of, which restart() attaches with again
+        this.options = options;
+        if (pid != attached) {
+            startOptions = options.asMap();
+            if (options.getBinaryPath() != null) {
+                binaryPath = options.getBinaryPath();
             }
+            pid = attached;
+            watch(attached);
+            Tunnels.register(this);
         }
+        attachedKey = key;
+    }
+
+    /**
+     * Releases a tunnel obtained with {@link #startOrAttach(Map)}, stopping it if no other JVM
+     * or Tunnel instance is attached to it any more.
+     */
+    public void detach() throws Exception {
+        byte[] key = attachedKey;
+        if (key == null) return;
+        stopRequested = true;
+        detaching = true;
+        try {
+            boolean stopped = new TunnelRegistry().detach(key, this::isProcessAlive, new TunnelRegistry.Stopper() {
+                public void stop() throws Exception {
+                    // the last holder: from here on the tunnel is this JVM's alone
+                    attachedKey = null;
+                    Tunnel.this.stop(options);
+                }
+            });
+            attachedKey = null;
+            if (!stopped) {
+                unwatch();
+                pid = 0;
+                Tunnels.unregister(this);
+            }
+        } finally {
+            detaching = false;
+        }
+    }
+
+    /**
+     * Sets the time a start may wait for the binary to report the tunnel's state, and a stop for
+     * the binary to finish, before it is killed. Defaults to two minutes.
+     *
+     * @param millis timeout in milliseconds, 0 to wait indefinitely
+     */
+    public void setTimeout(long millis) {
+        timeout = millis;
     }
 
     public void stop() throws Exception {
+        stopRequested = true;
         if (pid != 0) {
-            makeCommand(startOptions, "stop");
+            unwatch();
+            command = options.command(binaryPath, "stop");
             proc = runCommand(command);
-            proc.waitFor();
+            collect(proc, "stop");
             pid = 0;
+            Tunnels.unregister(this);
         }
     }
 
     /**
     * Stops the Tunnel instance specified by the given identifier
     * @param options Options supplied for the Tunnel instance
+    * @throws TunnelException if the key is missing or an option is invalid
     **/
     public void stop(Map<String, String> options) throws Exception {
-        if (options.get("binarypath") != null) {
-            binaryPath = options.get("binarypath");
-        } else {
+        stop(options(options));
+    }
+
+    /**
+     * Validates options of the {@code Map} API, which reports invalid options as a
+     * TunnelException rather than the IllegalArgumentException of {@link TunnelOptions#of(Map)}.
+     */
+    private static TunnelOptions options(Map<String, String> options) throws TunnelException {
+        try {
+            return TunnelOptions.of(options);
+        } catch (IllegalArgumentException e) {
+            throw new TunnelException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops the Tunnel instance specified by the given identifier. The binary this instance
+     * started is reused; only an instance that never started looks the binary up.
+     *
+     * @param options Options supplied for the Tunnel instance
+     */
+    public void stop(TunnelOptions options) throws Exception {
+        if (options.getBinaryPath() != null) {
+            binaryPath = options.getBinaryPath();
+        } else if (binaryPath == null) {
             TunnelBinary lb = new TunnelBinary();
             binaryPath = lb.getBinaryPath();
         }
-        makeCommand(options, "stop");
+        stopRequested = true;
+        unwatch();
+        command = options.command(binaryPath, "stop");
         proc = runCommand(command);
-        proc.waitFor();
+        collect(proc, "stop");
         pid = 0;
+        Tunnels.unregister(this);
     }
 
     /**
-     * Checks if Tunnel instance is running
+     * Detaches the tunnel if it was obtained with {@link #startOrAttach(Map)}, else stops it.
+     * Used by {@link Tunnels#stopAll(java.time.Duration)}.
+     */
+    void release() throws Exception {
+        if (attachedKey != null) {
+            detach();
+        } else {
+            stop();
+        }
+    }
+
+    /**
+     * Gives up on a stop or detach that failed or did not finish in time: kills the stopping
+     * binary and forgets the tunnel process. A tunnel shared with other JVMs is only released:
+     * this JVM's reference is dropped unless the detach still in progress drops it.
+     *
+     * @return true if the caller should kill the tunnel process, false if other JVMs may still
+     * use it
+     */
+    boolean abandon() {
+        TunnelProcess process = pending;
+        if (process != null) process.destroy();
+        byte[] key = attachedKey;
+        boolean kill = key == null || (!detaching && dropReference(key));
+        stopRequested = true;
+        unwatch();
+        pid = 0;
+        Tunnels.unregister(this);
+        return kill;
+    }
+
+    /**
+     * @return true if this was the last reference to the shared tunnel
+     */
+    private boolean dropReference(byte[] key) {
+        try {
+            boolean last = new TunnelRegistry().drop(key, this::isProcessAlive);
+            attachedKey = null;
+            return last;
+        } catch (Exception e) {
+            // other JVMs may hold it; leave it running rather than kill it under them
+            return false;
+        }
+    }
+
+    /**
+     * Stops whatever is left of the tunnel and starts it again with the options of the last
+     * start. A tunnel obtained with {@link #startOrAttach(Map)} is detached and attached again
+     * instead, so that it is only stopped if no other JVM holds it. Used by
+     * {@link TunnelSupervisor}.
+     */
+    void restart() throws Exception {
+        TunnelOptions options = this.options;
+        if (attachedKey != null) {
+            detach();
+            startOrAttach(options);
+            return;
+        }
+        if (pid != 0) {
+            try {
+                stop();
+            } catch (Exception e) {
+                // the tunnel may be gone already; starting again is what matters
+            }
+        }
+        unwatch();
+        pid = 0;
+        start(options);
+    }
+
+    /**
+     * Returns the version of the downloaded LambdaTest tunnel binary
+     *
+     * @return the version reported by the binary, or null if a binarypath was supplied or the
+     * Tunnel instance was not started yet
+     */
+    public String getBinaryVersion() {
+        return binaryVersion;
+    }
+
+    /**
+     * Checks if Tunnel instance is running. The tunnel process is watched from the moment it
+     * connects, so this only reads the last known state and never spawns a process.
      *
      * @return true if Tunnel instance is running, else false
      */
     public boolean isRunning() throws Exception {
-        if (pid == 0) return false;
-        return isProcessRunning(pid);
+        return pid != 0 && running;
     }
 
     /**
-     * Creates a list of command-line arguments for the Tunnel instance
+     * Returns the time spent in each phase of the last successful start
      *
-     * @param options Options supplied for the Tunnel instance
+     * @return the report, or null if the Tunnel instance was not started yet
      */
-    private void makeCommand(Map<String, String> options, String opCode) {
-        command = new ArrayList<String>();
-        command.add(binaryPath);
-        command.add("-d");
-        command.add(opCode);
-        command.add("--key");
-        command.add(options.get("key"));
-
-        for (Map.Entry<String, String> opt : options.entrySet()) {
-            String parameter = opt.getKey().trim();
-            if (IGNORE_KEYS.contains(parameter)) {
-                continue;
-            }
-            if (voidValueParameters.get(parameter) != null && opt.getValue().trim().toLowerCase() != "false") {
-                command.add(voidValueParameters.get(parameter));
-            } else {
-                if (parameters.get(parameter) != null) {
-                    command.add(parameters.get(parameter));
-                } else {
-                    command.add("-" + parameter);
-                }
-                if (opt.getValue() != null) {
-                    command.add(opt.getValue().trim());
+    public StartupReport getStartupReport() {
+        return startupReport;
+    }
+
+    /**
+     * Registers a listener receiving the timing of each phase of {@link #start(Map)}
+     *
+     * @param listener the listener
+     */
+    public void addLifecycleListener(TunnelLifecycleListener listener) {
+        lifecycleListeners.add(listener);
+    }
+
+    public void removeLifecycleListener(TunnelLifecycleListener listener) {
+        lifecycleListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener notified when the tunnel process exits without {@link #stop()}
+     *
+     * @param listener the listener
+     */
+    public void addExitListener(TunnelExitListener listener) {
+        exitListeners.add(listener);
+    }
+
+    public void removeExitListener(TunnelExitListener listener) {
+        exitListeners.remove(listener);
+    }
+
+    /**
+     * Starts tracking the liveness of the daemonised tunnel process.
+     *
+     * @param pid pid reported by the binary
+     */
+    private void watch(final int pid) {
+        watchedPid = pid;
+        CompletableFuture<?> exit = watchProcess(pid);
+        if (exit == null) {
+            running = false;
+            return;
+        }
+        running = true;
+        exit.thenRun(new Runnable() {
+            public void run() {
+                // A stop() or a new start() since means this exit was expected or is stale.
+                if (watchedPid != pid) return;
+                running = false;
+                for (TunnelExitListener listener : exitListeners) {
+                    listener.onExit(Tunnel.this, pid);
                 }
             }
-        }
+        });
+    }
+
+    private void unwatch() {
+        watchedPid = 0;
+        running = false;
     }
 
     /**
-     * Checks if process with pid is running
+     * Tells whether the process with the given pid is running, without watching it.
      *
-     * @param pid pid for the process to be checked.
-     * @link http://stackoverflow.com/a/26423642/941691
+     * @param pid pid of the tunnel process
      */
-    private boolean isProcessRunning(int pid) throws Exception {
-        ArrayList<String> cmd = new ArrayList<String>();
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            //tasklist exit code is always 0. Parse output
-            //findstr exit code 0 if found pid, 1 if it doesn't
-            cmd.add("cmd");
-            cmd.add("/c");
-            cmd.add("\"tasklist /FI \"PID eq " + pid + "\" | findstr " + pid + "\"");
+    protected boolean isProcessAlive(int pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /**
+     * Watches the process with the given pid.
+     *
+     * @param pid pid of the tunnel process
+     * @return future completed when the process exits, or null if it is not running
+     */
+    protected CompletableFuture<?> watchProcess(int pid) {
+        Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+        if (!handle.isPresent() || !handle.get().isAlive()) {
+            return null;
+        }
+        return TunnelExecutors.onExit(handle.get());
+    }
+
+    /**
+     * Waits for the starting binary to report its state, honouring the timeout and cancellation
+     * of an asynchronous request. Returns as soon as the state event is read, without waiting for
+     * the binary's output to end.
+     */
+    private JSONObject awaitState(TunnelProcess process) throws Exception {
+        pending = process;
+        try {
+            if (cancelled) {
+                process.destroy();
+                throw new CancellationException();
+            }
+            JSONObject event = OutputEvents.watch(process).await(timeout);
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return event;
+        } catch (TimeoutException e) {
+            process.destroy();
+            throw new TunnelException("Timed out after " + timeout + "ms waiting for LambdaTest tunnel to connect");
+        } catch (TunnelException e) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            throw e;
+        } finally {
+            pending = null;
+        }
+    }
+
+    private static String errorMessage(JSONObject event) {
+        Object message = event.opt("message");
+        if (message instanceof JSONObject && ((JSONObject) message).has("message")) {
+            return ((JSONObject) message).getString("message");
         }
-        else {
-            //ps exit code 0 if process exists, 1 if it doesn't
-            cmd.add("ps");
-            cmd.add("-p");
-            cmd.add(String.valueOf(pid));
+        return message != null ? message.toString() : event.toString();
+    }
+
+    /**
+     * Drains the output of a launched binary, honouring the timeout and cancellation of an
+     * asynchronous request.
+     */
+    private ProcessOutput collect(TunnelProcess process, String opCode) throws Exception {
+        pending = process;
+        try {
+            if (cancelled) {
+                process.destroy();
+                throw new CancellationException();
+            }
+            ProcessOutput output = ProcessOutput.collect(process, timeout);
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return output;
+        } catch (TimeoutException e) {
+            throw new TunnelException("Timed out after " + timeout + "ms waiting for LambdaTest tunnel " + opCode);
+        } finally {
+            pending = null;
         }
+    }
 
-        proc = runCommand(cmd);
-        int exitValue = proc.waitFor();
+    private CompletableFuture<Tunnel> async(Executor executor, final Operation operation) {
+        final CompletableFuture<Tunnel> future = new CompletableFuture<Tunnel>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean result = super.cancel(mayInterruptIfRunning);
+                if (result) {
+                    cancelled = true;
+                    TunnelProcess process = pending;
+                    if (process != null) process.destroy();
+                }
+                return result;
+            }
+        };
+        cancelled = false;
+        executor.execute(new Runnable() {
+            public void run() {
+                if (future.isDone()) return;
+                try {
+                    operation.run();
+                    future.complete(Tunnel.this);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    cancelled = false;
+                }
+            }
+        });
+        return future;
+    }
 
-        // 0 is the default exit code which means the process exists
-        return exitValue == 0;
+    private interface Operation {
+        void run() throws Exception;
     }
 
     /**
@@ -229,6 +629,10 @@ public class Tunnel {
             public int waitFor() throws Exception {
                 return process.waitFor();
             }
+
+            public void destroy() {
+                process.destroy();
+            }
         };
     }
 
@@ -238,5 +642,11 @@ public class Tunnel {
         InputStream getErrorStream();
 
         int waitFor() throws Exception;
+
+        /**
+         * Kills the process, used when a start or stop times out or is cancelled.
+         */
+        default void destroy() {
+        }
     }
 }
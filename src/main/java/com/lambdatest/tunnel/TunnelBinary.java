@@ -1,59 +1,126 @@
 package com.lambdatest.tunnel;
 
-import org.apache.commons.io.FileUtils;
-
 import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.core.ZipFile;
+import net.lingala.zip4j.ZipFile;
 
 class TunnelBinary {
 
     private static final String BIN_URL = "https://downloads.lambdatest.com/tunnel/";
 
+    /**
+     * System property holding the time in milliseconds a cached binary is trusted before the
+     * download server is asked whether it changed.
+     */
+    static final String CACHE_TTL_PROPERTY = "lambdatest.tunnel.binaryCacheTtl";
+
+    private static final long DEFAULT_CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * System properties holding the connect and read timeouts in milliseconds of the binary
+     * download.
+     */
+    static final String CONNECT_TIMEOUT_PROPERTY = "lambdatest.tunnel.downloadConnectTimeout";
+    static final String READ_TIMEOUT_PROPERTY = "lambdatest.tunnel.downloadReadTimeout";
+
+    /**
+     * System property selecting how the binary is installed. When true (the default) the binary
+     * is inflated straight from the download stream; when false the zip is saved first, which
+     * allows an interrupted download to be resumed.
+     */
+    static final String STREAMING_INSTALL_PROPERTY = "lambdatest.tunnel.streamingInstall";
+
+    private final String baseUrl;
+    private final long cacheTtl;
+    /**
+     * Binaries already run with --version in this JVM, by path.
+     */
+    private static final ConcurrentMap<String, ValidatedBinary> VALIDATED =
+            new ConcurrentHashMap<String, ValidatedBinary>();
+
+    private final BinaryDownloader downloader;
+    private final PhaseRecorder phases;
+    private final BundledBinary bundle;
+    private final boolean streamingInstall =
+            Boolean.parseBoolean(System.getProperty(STREAMING_INSTALL_PROPERTY, "true"));
+
     private String httpPath;
 
     private String binaryPath;
-    private String store;
     private String binFileName;
     private String downloadFileName;
     String destParentDir;
 
     private boolean isOSWindows;
+    private BinaryManifest manifest;
+    private String version;
 
-    private final String orderedPaths[] = {
-            System.getProperty("user.home") + "/.lambdatest",
-            System.getProperty("user.dir"),
-            System.getProperty("java.io.tmpdir")
-    };
+    private final String orderedPaths[];
 
     TunnelBinary() throws TunnelException {
-        initialize();
-        getBinary();
-        checkBinary();
+        this(new PhaseRecorder());
     }
 
-    private static void downloadZipFile(String urlStr, String file) throws IOException {
-        try {
-            URL url = new URL(urlStr);
-            URLConnection conn = url.openConnection();
-            InputStream in = conn.getInputStream();
-            FileOutputStream out = new FileOutputStream(file);
-            byte[] b = new byte[1024];
-            int count;
-            while ((count = in.read(b)) >= 0) {
-                out.write(b, 0, count);
-            }
-            out.close();
-            out.flush(); out.close(); in.close();
+    /**
+     * @param phases recorder timing the phases of resolving the binary, also told the download
+     *               progress
+     */
+    TunnelBinary(PhaseRecorder phases) throws TunnelException {
+        this(BIN_URL, new String[]{
+                System.getProperty("user.home") + "/.lambdatest",
+                System.getProperty("user.dir"),
+                System.getProperty("java.io.tmpdir")
+        }, Long.getLong(CACHE_TTL_PROPERTY, DEFAULT_CACHE_TTL), new BinaryDownloader(
+                Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, BinaryDownloader.DEFAULT_CONNECT_TIMEOUT),
+                Integer.getInteger(READ_TIMEOUT_PROPERTY, BinaryDownloader.DEFAULT_READ_TIMEOUT),
+                BinaryDownloader.DEFAULT_MAX_ATTEMPTS, phases), phases);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * @param baseUrl      URL the platform specific zip paths are resolved against
+     * @param orderedPaths candidate directories for the binary, in order of preference
+     * @param cacheTtl     time in milliseconds a cached binary is used without revalidation
+     */
+    TunnelBinary(String baseUrl, String[] orderedPaths, long cacheTtl) throws TunnelException {
+        this(baseUrl, orderedPaths, cacheTtl, new BinaryDownloader(), new PhaseRecorder());
+    }
+
+    /**
+     * @param baseUrl      URL the platform specific zip paths are resolved against
+     * @param orderedPaths candidate directories for the binary, in order of preference
+     * @param cacheTtl     time in milliseconds a cached binary is used without revalidation
+     * @param downloader   downloader used to fetch the zip, carrying timeouts and progress callback
+     * @param phases       recorder timing the phases of resolving the binary
+     */
+    TunnelBinary(String baseUrl, String[] orderedPaths, long cacheTtl, BinaryDownloader downloader,
+                 PhaseRecorder phases) throws TunnelException {
+        this(baseUrl, orderedPaths, cacheTtl, downloader, phases, BundledBinary.fromClasspath());
+    }
+
+    /**
+     * @param baseUrl      URL the platform specific zip paths are resolved against
+     * @param orderedPaths candidate directories for the binary, in order of preference
+     * @param cacheTtl     time in milliseconds a cached binary is used without revalidation
+     * @param downloader   downloader used to fetch the zip, carrying timeouts and progress callback
+     * @param phases       recorder timing the phases of resolving the binary
+     * @param bundle       zips bundled on the classpath, tried before the network; may be null
+     */
+    TunnelBinary(String baseUrl, String[] orderedPaths, long cacheTtl, BinaryDownloader downloader,
+                 PhaseRecorder phases, BundledBinary bundle) throws TunnelException {
+        this.baseUrl = baseUrl;
+        this.bundle = bundle;
+        this.orderedPaths = orderedPaths;
+        this.cacheTtl = cacheTtl;
+        this.downloader = downloader;
+        this.phases = phases;
+        initialize();
+        getBinary();
+        checkBinary();
     }
 
     private void initialize() throws TunnelException {
@@ -78,35 +145,88 @@ class TunnelBinary {
         }
 
        
-        httpPath = BIN_URL + binFileName;
+        httpPath = baseUrl + binFileName;
         System.out.println(httpPath);
     }
 
     private void checkBinary() throws TunnelException{
-        boolean binaryWorking = validateBinary();
+        version = cachedVersion();
+        if (version != null) {
+            return;
+        }
 
-        if(!binaryWorking){
-            File binary_file = new File(binaryPath);
-            if (binary_file.exists()) {
-                binary_file.delete();
-            }
+        version = validateBinary();
+
+        if(version == null){
+            // Dropping the manifest makes getBinary() replace the binary under the cache lock,
+            // rather than deleting a file another process may be about to run.
+            BinaryManifest.delete(new File(binaryPath));
+            manifest = null;
             getBinary();
-            if(!validateBinary()){
+            version = validateBinary();
+            if(version == null){
                 throw new TunnelException("LambdaTestTunnel binary is corrupt");
             }
         }
+
+        recordValidation();
     }
 
-    private boolean validateBinary() throws TunnelException{
-        Process process;
-        String url = httpPath;
+    /**
+     * Looks up the version of a binary that was already run with --version, first in this JVM and
+     * then in the manifest. The manifest has been verified against the binary's size and hash by
+     * this point, so a matching modification time means it is the very file that was validated.
+     *
+     * @return the cached version, or null if the binary has to be validated
+     */
+    private String cachedVersion() {
+        File binary = new File(binaryPath);
+        ValidatedBinary known = VALIDATED.get(binaryPath);
+        if (known != null && known.matches(binary, manifest.sha256)) {
+            return known.version;
+        }
+        if (manifest.version != null && manifest.validatedMtime == binary.lastModified()) {
+            VALIDATED.put(binaryPath, new ValidatedBinary(binary, manifest.sha256, manifest.version));
+            return manifest.version;
+        }
+        return null;
+    }
+
+    private void recordValidation() throws TunnelException {
+        File binary = new File(binaryPath);
+        VALIDATED.put(binaryPath, new ValidatedBinary(binary, manifest.sha256, version));
+
+        BinaryLock lock;
         try {
-            downloadZipFile(url, store+downloadFileName);
+            lock = acquireLock();
         } catch (IOException e) {
-            e.printStackTrace();
+            return;
         }
-        
-        unzip(destParentDir+"/LT_Linux.zip", destParentDir);
+        try {
+            // Another process may have replaced the binary since it was validated here.
+            BinaryManifest current = BinaryManifest.load(binary);
+            if (current != null && manifest.sha256.equals(current.sha256)) {
+                current.version = version;
+                current.validatedMtime = binary.lastModified();
+                manifest = current;
+                saveManifest();
+            }
+        } finally {
+            try {
+                lock.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs the binary with --version.
+     *
+     * @return the reported version, or null if the output does not look like a version
+     */
+    private String validateBinary() throws TunnelException{
+        Process process;
+        PhaseRecorder.Span validate = phases.begin(StartupPhase.VALIDATE);
         try {
             changePermissions(binaryPath);
             ProcessBuilder pb = new ProcessBuilder(binaryPath,"--version");
@@ -122,34 +242,87 @@ class TunnelBinary {
             process.waitFor();
 
             boolean validBinary = Pattern.matches("\\d+\\.\\d+\\.\\d+\\d+\\-+\\w+\\d", stdout);
-            return validBinary;
+            return validBinary ? stdout : null;
         }catch(IOException ex){
             throw new TunnelException(ex.toString());
         }
         catch(InterruptedException ex){
             throw new TunnelException(ex.toString());
+        } finally {
+            validate.end();
         }
     }
 
-    public static void unzip(String source, String destination){
+    public static void unzip(String source, String destination) throws TunnelException {
         try {
             ZipFile zipFile = new ZipFile(source);
             zipFile.extractAll(destination);
         } catch (ZipException e) {
-            e.printStackTrace();
+            throw new TunnelException("Error trying to unzip LambdaTestTunnel binary: " + e.getMessage());
         }
     }
 
     private void getBinary() throws TunnelException {
-        destParentDir = getAvailableDirectory();
-        store = destParentDir;
+        PhaseRecorder.Span resolve = phases.begin(StartupPhase.RESOLVE_DIRECTORY);
+        try {
+            destParentDir = getAvailableDirectory();
+        } finally {
+            resolve.end();
+        }
         binaryPath = destParentDir + "/LT";
         if (isOSWindows) {
             binaryPath += ".exe";
         }
 
-        if (!new File(binaryPath).exists()) {
-            downloadBinary(destParentDir);
+        loadManifest();
+        if (manifest != null && manifest.isFresh(cacheTtl)) {
+            return;
+        }
+
+        // Only one process downloads; the others wait here and then find a fresh manifest.
+        BinaryLock lock;
+        try {
+            lock = acquireLock();
+        } catch (IOException e) {
+            throw new TunnelException("Error trying to lock LambdaTestTunnel binary directory: " + e.getMessage());
+        }
+        try {
+            loadManifest();
+            if (manifest == null) {
+                downloadBinary(destParentDir);
+            } else if (!manifest.isFresh(cacheTtl)) {
+                revalidateBinary();
+            }
+        } finally {
+            try {
+                lock.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void loadManifest() {
+        File binary = new File(binaryPath);
+        manifest = BinaryManifest.load(binary);
+        if (manifest == null) {
+            return;
+        }
+        // Hashing the binary is only needed if this JVM has not already seen this very file.
+        ValidatedBinary known = VALIDATED.get(binaryPath);
+        if (known != null && known.matches(binary, manifest.sha256)) {
+            return;
+        }
+        if (!manifest.describes(binary)) {
+            manifest = null;
+        }
+    }
+
+    private BinaryLock acquireLock() throws IOException {
+        PhaseRecorder.Span wait = phases.begin(StartupPhase.BINARY_LOCK);
+        try {
+            return BinaryLock.acquire(destParentDir);
+        } finally {
+            wait.end();
         }
     }
 
@@ -176,23 +349,183 @@ class TunnelBinary {
         }
     }
 
+    /**
+     * Asks the download server whether the cached binary is still current. A 304 only refreshes
+     * the manifest, anything else replaces the binary. If the server cannot be reached the cached
+     * binary, which has already been verified against its manifest, keeps being used. A binary
+     * installed from a bundle that is still on the classpath is kept without asking the server.
+     */
+    private void revalidateBinary() {
+        if (installBundled()) {
+            return;
+        }
+        try {
+            fetchBinary(manifest.etag, manifest.lastModified);
+        } catch (TunnelException e) {
+            // keep the verified cached binary
+        }
+    }
+
     private void downloadBinary(String destParentDir) throws TunnelException {
+        if (!new File(destParentDir).exists())
+            new File(destParentDir).mkdirs();
+        if (installBundled()) {
+            return;
+        }
+        fetchBinary(null, null);
+    }
+
+    /**
+     * Installs the binary from the zip bundled on the classpath, if there is one for this
+     * platform. A binary already installed from the same bundle is only marked as checked. Must be
+     * called with the cache lock held.
+     *
+     * @return false if nothing is bundled or the bundle is damaged, so the network has to be used
+     */
+    private boolean installBundled() {
+        if (bundle == null) return false;
+        File binary = new File(binaryPath);
+        File part = new File(destParentDir, binary.getName() + ".part");
+        PhaseRecorder.Span unzip = null;
         try {
-            if (!new File(destParentDir).exists())
-                new File(destParentDir).mkdirs();
+            String checksum = bundle.checksum(binFileName);
+            if (checksum == null) {
+                return false;
+            }
+            if (manifest != null && checksum.equals(manifest.bundle)) {
+                manifest.checkedAt = System.currentTimeMillis();
+                saveManifest();
+                return true;
+            }
+            unzip = phases.begin(StartupPhase.UNZIP);
+            BinaryDownloader.Result result = bundle.install(binFileName, binary.getName(), part);
+            if (result == null) {
+                return false;
+            }
+            install(part, result, checksum);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (TunnelException e) {
+            return false;
+        } finally {
+            if (unzip != null) unzip.end();
+            part.delete();
+        }
+    }
 
-            URL url = new URL(httpPath);
-            String source = destParentDir + "/LT";
-            if (isOSWindows) {
-                source += ".exe";
+    /**
+     * Downloads the zip, conditionally if a validator is given, and installs the binary from it.
+     * The binary is written under a temporary name first and published with an atomic rename, so
+     * a concurrent reader sees either the old or the new file. Must be called with the cache lock
+     * held.
+     */
+    private void fetchBinary(String etag, String lastModified) throws TunnelException {
+        File binary = new File(binaryPath);
+        File part = new File(destParentDir, binary.getName() + ".part");
+        try {
+            BinaryDownloader.Result result;
+            if (streamingInstall) {
+                PhaseRecorder.Span download = phases.begin(StartupPhase.DOWNLOAD);
+                try {
+                    result = downloader.extract(httpPath, binary.getName(), part, etag, lastModified);
+                } finally {
+                    download.end();
+                }
+            } else {
+                result = downloadAndUnzip(part, etag, lastModified);
+            }
+            if (result.notModified) {
+                manifest.checkedAt = System.currentTimeMillis();
+                saveManifest();
+                return;
             }
+            install(part, result, null);
+        } catch (IOException e) {
+            throw new TunnelException("Error trying to download LambdaTestTunnel binary: " + e.getMessage());
+        } finally {
+            part.delete();
+        }
+    }
 
-            File f = new File(source);
-            FileUtils.copyURLToFile(url, f);
+    /**
+     * Publishes an extracted binary with an atomic rename and writes its manifest.
+     *
+     * @param bundle checksum of the bundled zip it came from, null if it was downloaded
+     */
+    private void install(File part, BinaryDownloader.Result result, String bundle)
+            throws IOException, TunnelException {
+        changePermissions(part.getPath());
+
+        BinaryManifest fresh = new BinaryManifest();
+        fresh.size = part.length();
+        fresh.sha256 = result.sha256;
+        fresh.etag = result.etag;
+        fresh.lastModified = result.lastModified;
+        fresh.bundle = bundle;
+        fresh.checkedAt = System.currentTimeMillis();
+
+        BinaryManifest.delete(new File(binaryPath));
+        Files.move(part.toPath(), new File(binaryPath).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        manifest = fresh;
+        saveManifest();
+    }
 
-            changePermissions(binaryPath);
-        } catch (Exception e) {
-            throw new TunnelException("Error trying to download LambdaTestTunnel binary");
+    /**
+     * Saves the zip to disk with a resumable download, then extracts the binary into
+     * {@code target} with zip4j.
+     */
+    private BinaryDownloader.Result downloadAndUnzip(File target, String etag, String lastModified)
+            throws IOException, TunnelException {
+        File zip = new File(destParentDir, downloadFileName.substring(1) + ".part");
+        File extractDir = null;
+        // Left over by a process that died mid-download; without its validator it cannot be resumed.
+        zip.delete();
+        try {
+            BinaryDownloader.Result result;
+            PhaseRecorder.Span download = phases.begin(StartupPhase.DOWNLOAD);
+            try {
+                result = downloader.download(httpPath, zip, etag, lastModified);
+            } finally {
+                download.end();
+            }
+            if (result.notModified) return result;
+
+            extractDir = Files.createTempDirectory(new File(destParentDir).toPath(), "LT.extract").toFile();
+            PhaseRecorder.Span extract = phases.begin(StartupPhase.UNZIP);
+            try {
+                unzip(zip.getPath(), extractDir.getPath());
+            } finally {
+                extract.end();
+            }
+            File extracted = new File(extractDir, new File(binaryPath).getName());
+            if (!extracted.isFile()) {
+                throw new IOException("Archive does not contain " + extracted.getName());
+            }
+            Files.move(extracted.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            result.sha256 = BinaryManifest.sha256(target);
+            return result;
+        } finally {
+            zip.delete();
+            deleteRecursively(extractDir);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        if (file == null) return;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    private void saveManifest() throws TunnelException {
+        try {
+            manifest.save(new File(binaryPath));
+        } catch (IOException e) {
+            throw new TunnelException("Error trying to write LambdaTestTunnel binary manifest");
         }
     }
 
@@ -206,4 +539,39 @@ class TunnelBinary {
     public String getBinaryPath() {
         return binaryPath;
     }
+
+    /**
+     * @return the version reported by the binary's --version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Forgets the validations done in this JVM; the persisted ones in the manifests remain.
+     */
+    static void clearValidationCache() {
+        VALIDATED.clear();
+    }
+
+    /**
+     * A binary that passed validation, identified by size, modification time and hash.
+     */
+    private static final class ValidatedBinary {
+        final long size;
+        final long mtime;
+        final String sha256;
+        final String version;
+
+        ValidatedBinary(File binary, String sha256, String version) {
+            this.size = binary.length();
+            this.mtime = binary.lastModified();
+            this.sha256 = sha256;
+            this.version = version;
+        }
+
+        boolean matches(File binary, String sha256) {
+            return binary.length() == size && binary.lastModified() == mtime && this.sha256.equals(sha256);
+        }
+    }
 }
\ No newline at end of file
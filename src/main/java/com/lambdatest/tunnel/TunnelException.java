@@ -6,4 +6,8 @@ class TunnelException extends Exception {
     TunnelException(String message) {
         super(message);
     }
+
+    TunnelException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
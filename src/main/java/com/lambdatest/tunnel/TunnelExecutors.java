@@ -0,0 +1,53 @@
+package com.lambdatest.tunnel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads used by the library for blocking process work: pumping the output of the binary,
+ * watching tunnel processes and running asynchronous start/stop requests when the caller does not
+ * supply an executor. On Java 21 and later all of it runs on virtual threads, before that on pools
+ * of platform threads; see {@link IoThreads}.
+ */
+final class TunnelExecutors {
+
+    private static final ExecutorService IO = IoThreads.newExecutor();
+    private static final ExecutorService TASKS = IoThreads.newTaskExecutor();
+
+    private TunnelExecutors() {
+    }
+
+    /**
+     * @return the shared executor for blocking I/O on tunnel processes
+     */
+    static ExecutorService io() {
+        return IO;
+    }
+
+    /**
+     * @return the shared executor for asynchronous starts and stops
+     */
+    static ExecutorService tasks() {
+        return TASKS;
+    }
+
+    /**
+     * @return future completed when the given process exits
+     */
+    static CompletableFuture<?> onExit(ProcessHandle process) {
+        return IoThreads.onExit(process);
+    }
+
+    static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
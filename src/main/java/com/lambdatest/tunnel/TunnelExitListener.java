@@ -0,0 +1,15 @@
+package com.lambdatest.tunnel;
+
+/**
+ * Notified when a connected tunnel process exits on its own, i.e. without {@link Tunnel#stop()}.
+ */
+public interface TunnelExitListener {
+
+    /**
+     * Called on a library thread once the process is gone.
+     *
+     * @param tunnel the Tunnel instance whose process exited
+     * @param pid    pid of the exited process
+     */
+    void onExit(Tunnel tunnel, int pid);
+}
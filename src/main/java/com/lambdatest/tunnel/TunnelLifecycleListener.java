@@ -0,0 +1,38 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+
+/**
+ * Receives the timing of each phase while a {@link Tunnel} starts.
+ */
+public interface TunnelLifecycleListener {
+
+    /**
+     * Called on the starting thread when a phase ends, whether or not it succeeded.
+     *
+     * @param tunnel   the starting Tunnel instance
+     * @param phase    the phase that ended
+     * @param duration time spent in it
+     */
+    void onPhase(Tunnel tunnel, StartupPhase phase, Duration duration);
+
+    /**
+     * Called once the tunnel is connected.
+     *
+     * @param tunnel the started Tunnel instance
+     * @param report time spent in all phases of the start
+     */
+    default void onStarted(Tunnel tunnel, StartupReport report) {
+    }
+
+    /**
+     * Called on the starting thread while the binary is downloaded, after every transferred chunk.
+     *
+     * @param tunnel         the starting Tunnel instance
+     * @param bytesRead      bytes of the download so far
+     * @param totalBytes     size of the download, or -1 if the server did not report it
+     * @param bytesPerSecond throughput of the download
+     */
+    default void onDownloadProgress(Tunnel tunnel, long bytesRead, long totalBytes, double bytesPerSecond) {
+    }
+}
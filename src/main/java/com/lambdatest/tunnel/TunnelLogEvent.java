@@ -0,0 +1,68 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A line of the tunnel's logFile that {@link TunnelLogFollower} recognised.
+ */
+public final class TunnelLogEvent {
+
+    /**
+     * What a log line reports.
+     */
+    public enum Type {
+        /** a connection through the tunnel was opened */
+        CONNECTION_OPENED,
+        /** a connection through the tunnel was closed */
+        CONNECTION_CLOSED,
+        /** the binary logged an error */
+        ERROR,
+        /** the binary is retrying or reconnecting */
+        RETRY,
+        /** the binary logged a round trip or response time */
+        LATENCY
+    }
+
+    private final Type type;
+    private final String message;
+    private final Duration latency;
+    private final Instant observedAt;
+
+    TunnelLogEvent(Type type, String message, Duration latency, Instant observedAt) {
+        this.type = type;
+        this.message = message;
+        this.latency = latency;
+        this.observedAt = observedAt;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the message of the line, or the whole line if it is not structured
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the reported time for {@link Type#LATENCY} events, otherwise null
+     */
+    public Duration getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return when the follower read the line
+     */
+    public Instant getObservedAt() {
+        return observedAt;
+    }
+
+    @Override
+    public String toString() {
+        return type + (latency != null ? " " + latency.toMillis() + "ms" : "") + ": " + message;
+    }
+}
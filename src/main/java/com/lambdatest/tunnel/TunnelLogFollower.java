@@ -0,0 +1,359 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the logFile of a tunnel and turns the lines it recognises into
+ * {@link TunnelLogEvent}s for listeners and counters. Only bytes appended since the last poll are
+ * read, with positional reads into a fixed buffer, so memory stays constant however large the log
+ * grows. A log that is rotated away is read to its end before the new file is opened, and one
+ * truncated in place is read again from the start. What the log already held when the follower
+ * was created is skipped, unless the follower is asked to read it from the start; the offset
+ * lives in memory only, so a follower in a later run would otherwise count an appended log again.
+ * <p>
+ * Lines may be plain text or JSON objects; of the latter the {@code level} and {@code msg} or
+ * {@code message} members are used. Lines longer than 16 KB are cut.
+ */
+public class TunnelLogFollower implements AutoCloseable {
+
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int MAX_LINE = 16 * 1024;
+
+    private static final Pattern ERROR = Pattern.compile("\\b(error|fatal|panic)\\b");
+    private static final Pattern RETRY = Pattern.compile("\\b(retry|retrying|reconnect|reconnecting)\\b");
+    private static final Pattern CLOSED = Pattern.compile(
+            "\\b(connection (closed|reset|terminated)|closed connection|disconnected)\\b");
+    private static final Pattern OPENED = Pattern.compile(
+            "\\b(connection (opened|established|accepted)|new connection|opened connection|connected)\\b");
+    private static final Pattern LATENCY = Pattern.compile(
+            "\\b(latency|rtt|round[- ]trip|response time|took|ping)\\b\\D{0,20}?(\\d+(?:\\.\\d+)?)\\s*(ms|us|\u00b5s|s)\\b");
+
+    private final Path logFile;
+    private final List<TunnelLogListener> listeners = new CopyOnWriteArrayList<TunnelLogListener>();
+    private final Map<TunnelLogEvent.Type, LongAdder> counts =
+            new EnumMap<TunnelLogEvent.Type, LongAdder>(TunnelLogEvent.Type.class);
+    private final LongAdder lineCount = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    // reading state, guarded by this
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private boolean partialLine;
+    // the log as it was when the follower was created, skipped on the first open
+    private Object skipKey;
+    private long skip;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Follows what the tunnel logs from now on.
+     *
+     * @param tunnel a Tunnel started with the logFile option
+     */
+    public TunnelLogFollower(Tunnel tunnel) {
+        this(Paths.get(logFile(tunnel)), false);
+    }
+
+    /**
+     * Follows what is appended to the log from now on.
+     *
+     * @param logFile the log to follow; it does not have to exist yet
+     */
+    public TunnelLogFollower(Path logFile) {
+        this(logFile, false);
+    }
+
+    /**
+     * @param logFile   the log to follow; it does not have to exist yet
+     * @param fromStart true to also read what the log already holds
+     */
+    public TunnelLogFollower(Path logFile, boolean fromStart) {
+        this.logFile = logFile;
+        for (TunnelLogEvent.Type type : TunnelLogEvent.Type.values()) {
+            counts.put(type, new LongAdder());
+        }
+        if (!fromStart) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+                skipKey = attributes.fileKey();
+                skip = attributes.size();
+            } catch (IOException e) {
+                // not there yet: all it will hold is new
+            }
+        }
+    }
+
+    private static String logFile(Tunnel tunnel) {
+        String logFile = tunnel.startOptions != null ? tunnel.startOptions.get("logFile") : null;
+        if (logFile == null) {
+            throw new IllegalArgumentException("Tunnel was not started with the logFile option");
+        }
+        return logFile.trim();
+    }
+
+    public void addListener(TunnelLogListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TunnelLogListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Polls the log on a background thread.
+     *
+     * @param intervalMillis time between polls
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-log"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    // the log may be mid-rotation; the next poll tries again
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads what was appended to the log since the last poll.
+     *
+     * @return number of complete lines read
+     */
+    public synchronized long poll() throws IOException {
+        long before = lineCount.sum();
+        if (channel == null && !open()) {
+            return 0;
+        }
+        read();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // moved away and not recreated yet; keep reading the old file
+            return lineCount.sum() - before;
+        }
+        Object key = attributes.fileKey();
+        if (key != null && fileKey != null && !key.equals(fileKey)) {
+            endLine();
+            channel.close();
+            channel = null;
+            if (open()) read();
+        } else if (attributes.size() < offset) {
+            lineLength = 0;
+            offset = 0;
+            read();
+        }
+        return lineCount.sum() - before;
+    }
+
+    /**
+     * Stops polling and closes the log.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * @return number of events of the given type read so far
+     */
+    public long getCount(TunnelLogEvent.Type type) {
+        return counts.get(type).sum();
+    }
+
+    /**
+     * @return number of lines read so far, recognised or not
+     */
+    public long getLineCount() {
+        return lineCount.sum();
+    }
+
+    /**
+     * @return mean of the latencies reported so far, zero if none
+     */
+    public Duration getMeanLatency() {
+        long samples = getCount(TunnelLogEvent.Type.LATENCY);
+        return Duration.ofNanos(samples == 0 ? 0 : latencyNanos.sum() / samples);
+    }
+
+    /**
+     * @return largest latency reported so far, zero if none
+     */
+    public Duration getMaxLatency() {
+        return Duration.ofNanos(maxLatencyNanos.get());
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(logFile, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        fileKey = Files.readAttributes(logFile, BasicFileAttributes.class).fileKey();
+        offset = 0;
+        lineLength = 0;
+        partialLine = false;
+        if (skip > 0 && (skipKey == null || skipKey.equals(fileKey))) {
+            offset = Math.min(skip, channel.size());
+            if (offset > 0) {
+                // the rest of a line cut by the skip is dropped with it
+                ByteBuffer last = ByteBuffer.allocate(1);
+                partialLine = channel.read(last, offset - 1) == 1 && last.get(0) != '\n';
+            }
+        }
+        skip = 0;
+        return true;
+    }
+
+    private void read() throws IOException {
+        int n;
+        while ((n = channel.read(buffer, offset)) > 0) {
+            offset += n;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    endLine();
+                } else if (lineLength < MAX_LINE) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE));
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            buffer.clear();
+        }
+    }
+
+    private void endLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        lineLength = 0;
+        if (partialLine) {
+            partialLine = false;
+            return;
+        }
+        if (length == 0) return;
+
+        lineCount.increment();
+        TunnelLogEvent event = parse(new String(line, 0, length, StandardCharsets.UTF_8), Instant.now());
+        if (event == null) return;
+        counts.get(event.getType()).increment();
+        if (event.getLatency() != null) {
+            long nanos = event.getLatency().toNanos();
+            latencyNanos.add(nanos);
+            maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+        for (TunnelLogListener listener : listeners) {
+            listener.onEvent(event);
+        }
+    }
+
+    /**
+     * Classifies a log line.
+     *
+     * @return the event, or null if the line reports nothing this follower tracks
+     */
+    static TunnelLogEvent parse(String text, Instant observedAt) {
+        String message = text.trim();
+        String level = null;
+        if (message.startsWith("{")) {
+            final String[] fields = new String[2];
+            try {
+                InfoParser.parse(new StringReader(message), new InfoParser.Handler() {
+                    public void value(String key, String value) {
+                        if (key == null || value == null) return;
+                        if (key.equals("level") || key.equals("lvl") || key.equals("severity")) {
+                            fields[0] = value;
+                        } else if (key.equals("msg") || key.equals("message")) {
+                            fields[1] = value;
+                        }
+                    }
+                });
+                level = fields[0];
+                if (fields[1] != null) message = fields[1];
+            } catch (IOException e) {
+                // not JSON after all; classify the raw line
+            }
+        }
+
+        String lower = message.toLowerCase(Locale.ROOT);
+        if (level != null && ERROR.matcher(level.toLowerCase(Locale.ROOT)).find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.ERROR, message, null, observedAt);
+        }
+        if ((level == null || !level.toLowerCase(Locale.ROOT).startsWith("info")) && ERROR.matcher(lower).find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.ERROR, message, null, observedAt);
+        }
+        if (RETRY.matcher(lower).find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.RETRY, message, null, observedAt);
+        }
+        Matcher latency = LATENCY.matcher(lower);
+        if (latency.find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.LATENCY, message,
+                    toDuration(Double.parseDouble(latency.group(2)), latency.group(3)), observedAt);
+        }
+        if (CLOSED.matcher(lower).find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.CONNECTION_CLOSED, message, null, observedAt);
+        }
+        if (OPENED.matcher(lower).find()) {
+            return new TunnelLogEvent(TunnelLogEvent.Type.CONNECTION_OPENED, message, null, observedAt);
+        }
+        return null;
+    }
+
+    private static Duration toDuration(double value, String unit) {
+        double nanos;
+        if (unit.equals("s")) {
+            nanos = value * 1e9;
+        } else if (unit.equals("ms")) {
+            nanos = value * 1e6;
+        } else {
+            nanos = value * 1e3;
+        }
+        return Duration.ofNanos(Math.round(nanos));
+    }
+}
@@ -0,0 +1,14 @@
+package com.lambdatest.tunnel;
+
+/**
+ * Receives the events {@link TunnelLogFollower} reads from the tunnel's logFile.
+ */
+public interface TunnelLogListener {
+
+    /**
+     * Called on the follower's thread, in the order the lines were written.
+     *
+     * @param event the recognised line
+     */
+    void onEvent(TunnelLogEvent event);
+}
@@ -0,0 +1,256 @@
+package com.lambdatest.tunnel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Polls the info API the tunnel binary serves on its infoAPIPort and exposes the figures as
+ * gauges that can be read from any thread without locking, and optionally over JMX.
+ * <p>
+ * The response is scanned for the members below at any depth; anything else is ignored:
+ * <ul>
+ * <li>{@code state} or {@code status}: the tunnel's own state</li>
+ * <li>{@code requestCount}, {@code totalRequests} or {@code requests}: requests proxied</li>
+ * <li>{@code activeConnections} or {@code connections}: open connections</li>
+ * <li>{@code bytesTransferred}, or the sum of {@code bytesIn}/{@code bytesReceived} and
+ * {@code bytesOut}/{@code bytesSent}: bytes moved through the tunnel</li>
+ * </ul>
+ */
+public class TunnelMetrics implements TunnelMetricsMBean, AutoCloseable {
+
+    static final String INFO_PATH = "/api/v1.0/info";
+
+    private static final int TIMEOUT = 2000;
+
+    private final String url;
+    private final String name;
+
+    private volatile String state;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong activeConnections = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong lastPollTime = new AtomicLong();
+    private final LongAdder pollCount = new LongAdder();
+    private final LongAdder pollFailures = new LongAdder();
+
+    private ScheduledExecutorService scheduler;
+    private ObjectName objectName;
+
+    /**
+     * @param tunnel a Tunnel started with the infoAPIPort option
+     */
+    public TunnelMetrics(Tunnel tunnel) {
+        this(infoAPIPort(tunnel), tunnel.startOptions.get("tunnelName"));
+    }
+
+    /**
+     * @param infoAPIPort port the tunnel binary serves its info API on
+     * @param name        name the metrics are registered under in JMX, defaults to the port
+     */
+    public TunnelMetrics(int infoAPIPort, String name) {
+        this("http://127.0.0.1:" + infoAPIPort + INFO_PATH, name != null ? name : String.valueOf(infoAPIPort));
+    }
+
+    TunnelMetrics(String url, String name) {
+        this.url = url;
+        this.name = name;
+    }
+
+    private static int infoAPIPort(Tunnel tunnel) {
+        String port = tunnel.startOptions != null ? tunnel.startOptions.get("infoAPIPort") : null;
+        if (port == null) {
+            throw new IllegalArgumentException("Tunnel was not started with the infoAPIPort option");
+        }
+        return Integer.parseInt(port.trim());
+    }
+
+    /**
+     * Polls the info API on a background thread.
+     *
+     * @param intervalMillis time between polls
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-metrics"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (IOException e) {
+                    // counted in pollFailures; the next poll tries again
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the info API once and updates the gauges.
+     *
+     * @throws IOException if the info API could not be read
+     */
+    public void poll() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(TIMEOUT);
+        conn.setReadTimeout(TIMEOUT);
+        try {
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Info API returned " + status);
+            }
+            final Snapshot snapshot = new Snapshot();
+            Reader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
+            try {
+                InfoParser.parse(reader, snapshot);
+            } finally {
+                reader.close();
+            }
+            snapshot.publish();
+            pollCount.increment();
+            lastPollTime.set(System.currentTimeMillis());
+        } catch (IOException e) {
+            pollFailures.increment();
+            throw e;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * {@code com.lambdatest.tunnel:type=TunnelMetrics,name=<tunnelName>}.
+     *
+     * @return the name the MBean was registered under
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if (objectName == null) {
+            ObjectName on = new ObjectName("com.lambdatest.tunnel:type=TunnelMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        }
+        return objectName;
+    }
+
+    /**
+     * Stops polling and unregisters the MBean.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * @return time of the last successful poll in epoch milliseconds, 0 if none
+     */
+    public long getLastPollTime() {
+        return lastPollTime.get();
+    }
+
+    public long getPollCount() {
+        return pollCount.sum();
+    }
+
+    public long getPollFailures() {
+        return pollFailures.sum();
+    }
+
+    /**
+     * Values of one response, published together once it parsed completely.
+     */
+    private final class Snapshot implements InfoParser.Handler {
+        String state;
+        long requests = -1;
+        long connections = -1;
+        long bytes = -1;
+        long bytesIn = -1;
+        long bytesOut = -1;
+
+        public void value(String key, String value) {
+            if (key == null || value == null) return;
+            switch (key) {
+                case "state":
+                case "status":
+                    if (state == null || key.equals("state")) state = value;
+                    break;
+                case "requestCount":
+                case "totalRequests":
+                case "requests":
+                    requests = number(value, requests);
+                    break;
+                case "activeConnections":
+                case "connections":
+                    connections = number(value, connections);
+                    break;
+                case "bytesTransferred":
+                    bytes = number(value, bytes);
+                    break;
+                case "bytesIn":
+                case "bytesReceived":
+                    bytesIn = number(value, bytesIn);
+                    break;
+                case "bytesOut":
+                case "bytesSent":
+                    bytesOut = number(value, bytesOut);
+                    break;
+                default:
+            }
+        }
+
+        void publish() {
+            if (state != null) TunnelMetrics.this.state = state;
+            if (requests >= 0) requestCount.set(requests);
+            if (connections >= 0) activeConnections.set(connections);
+            if (bytes < 0 && (bytesIn >= 0 || bytesOut >= 0)) {
+                bytes = Math.max(0, bytesIn) + Math.max(0, bytesOut);
+            }
+            if (bytes >= 0) bytesTransferred.set(bytes);
+        }
+
+        private long number(String value, long fallback) {
+            try {
+                return (long) Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+    }
+}
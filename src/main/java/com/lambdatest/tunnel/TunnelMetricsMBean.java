@@ -0,0 +1,21 @@
+package com.lambdatest.tunnel;
+
+/**
+ * JMX view of {@link TunnelMetrics}.
+ */
+public interface TunnelMetricsMBean {
+
+    String getState();
+
+    long getRequestCount();
+
+    long getActiveConnections();
+
+    long getBytesTransferred();
+
+    long getLastPollTime();
+
+    long getPollCount();
+
+    long getPollFailures();
+}
@@ -0,0 +1,355 @@
+package com.lambdatest.tunnel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable options of a Tunnel. The options are validated when they are built, and the
+ * arguments they translate to are compiled once, so one instance can be started and stopped any
+ * number of times, and shared between threads and Tunnel instances, at no further cost.
+ * <p>
+ * Options without a typed setter can be given by the name the {@code Map} API uses, with
+ * {@link Builder#option(String, String)}; unknown names are passed to the binary as
+ * {@code -name value}.
+ */
+public final class TunnelOptions {
+
+    private static final Map<String, String> PARAMETERS = new HashMap<String, String>();
+    private static final Map<String, String> FLAGS = new HashMap<String, String>();
+    private static final Set<String> IGNORED = new HashSet<String>(Arrays.asList("key", "binarypath", "onlyCommand",
+            Preflight.OPTION, Preflight.TIMEOUT_OPTION));
+    private static final Set<String> PORTS = new HashSet<String>(
+            Arrays.asList("port", "infoAPIPort", "proxyPort", "customSSHPort"));
+
+    static {
+        FLAGS.put("v", "-v");
+        FLAGS.put("version", "-version");
+
+        PARAMETERS.put("config", "-config");
+        PARAMETERS.put("controller", "-controller");
+        PARAMETERS.put("cui", "-cui");
+        PARAMETERS.put("customSSHHost", "-customSSHHost");
+        PARAMETERS.put("customSSHPort", "-customSSHPort");
+        PARAMETERS.put("customSSHPrivateKey", "-customSSHPrivateKey");
+        PARAMETERS.put("customSSHUser", "-customSSHUser");
+        PARAMETERS.put("dir", "-dir");
+        PARAMETERS.put("dns", "-dns");
+        PARAMETERS.put("emulateChrome", "-emulateChrome");
+        PARAMETERS.put("env", "-env");
+        PARAMETERS.put("infoAPIPort", "-infoAPIPort");
+        PARAMETERS.put("localDomains", "-local-domains");
+        PARAMETERS.put("logFile", "-logFile");
+        PARAMETERS.put("mode", "-mode");
+        PARAMETERS.put("nows", "-nows");
+        PARAMETERS.put("outputConfig", "-outputConfig");
+        PARAMETERS.put("pac", "-pac");
+        PARAMETERS.put("pidfile", "-pidfile");
+        PARAMETERS.put("port", "-port");
+        PARAMETERS.put("proxyHost", "-proxy-host");
+        PARAMETERS.put("proxyPass", "-proxy-pass");
+        PARAMETERS.put("proxyPort", "-proxy-port");
+        PARAMETERS.put("proxyUser", "-proxy-user");
+        PARAMETERS.put("remoteDebug", "-remote-debug");
+        PARAMETERS.put("server", "-server");
+        PARAMETERS.put("sharedTunnel", "-shared-tunnel");
+        PARAMETERS.put("tunnelName", "-tunnelName");
+        PARAMETERS.put("user", "-user");
+    }
+
+    private final Map<String, String> options;
+    private final String key;
+    private final String binaryPath;
+    private final boolean onlyCommand;
+    private final String[] arguments;
+
+    private volatile Command start;
+    private volatile Command stop;
+
+    private TunnelOptions(Map<String, String> options) {
+        this.options = Collections.unmodifiableMap(new LinkedHashMap<String, String>(options));
+        key = trim(options.get("key"));
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("The key option is required");
+        }
+        binaryPath = trim(options.get("binarypath"));
+        onlyCommand = options.get("onlyCommand") != null && !"false".equalsIgnoreCase(options.get("onlyCommand").trim());
+
+        List<String> arguments = new ArrayList<String>(options.size() * 2);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String name = option.getKey().trim();
+            String value = trim(option.getValue());
+            if (PORTS.contains(name)) {
+                checkPort(name, value);
+            }
+            if (name.equals(Preflight.TIMEOUT_OPTION)) {
+                checkMillis(name, value);
+            }
+            if (IGNORED.contains(name)) {
+                continue;
+            }
+            String flag = FLAGS.get(name);
+            if (flag != null) {
+                if (!"false".equalsIgnoreCase(value)) arguments.add(flag);
+                continue;
+            }
+            String parameter = PARAMETERS.get(name);
+            arguments.add(parameter != null ? parameter : "-" + name);
+            if (value != null) {
+                arguments.add(value);
+            }
+        }
+        this.arguments = arguments.toArray(new String[0]);
+    }
+
+    /**
+     * @param options options by the names of the {@code Map} API
+     * @throws IllegalArgumentException if the key is missing or a port is not a port number
+     */
+    public static TunnelOptions of(Map<String, String> options) {
+        return new TunnelOptions(options);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder starting from these options
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.options.putAll(options);
+        return builder;
+    }
+
+    /**
+     * @return the options by the names of the {@code Map} API
+     */
+    public Map<String, String> asMap() {
+        return options;
+    }
+
+    public String get(String name) {
+        return options.get(name);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the binary given with the binarypath option, or null to use the downloaded one
+     */
+    public String getBinaryPath() {
+        return binaryPath;
+    }
+
+    public String getTunnelName() {
+        return trim(options.get("tunnelName"));
+    }
+
+    boolean isOnlyCommand() {
+        return onlyCommand;
+    }
+
+    /**
+     * Returns the command line for an operation of the binary. It is built once per binary path
+     * and operation and then shared, so it must not be modified.
+     *
+     * @param binaryPath path of the LT binary
+     * @param opCode     {@code start} or {@code stop}
+     */
+    List<String> command(String binaryPath, String opCode) {
+        boolean isStart = opCode.equals("start");
+        Command command = isStart ? start : stop;
+        if (command == null || !command.binaryPath.equals(binaryPath)) {
+            command = new Command(binaryPath, opCode, key, arguments);
+            if (isStart) {
+                start = command;
+            } else {
+                stop = command;
+            }
+        }
+        return command.argv;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TunnelOptions && options.equals(((TunnelOptions) o).options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    private static String trim(String value) {
+        return value != null ? value.trim() : null;
+    }
+
+    private static void checkPort(String name, String value) {
+        int port;
+        try {
+            port = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The " + name + " option is not a port number: " + value);
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("The " + name + " option is not a port number: " + value);
+        }
+    }
+
+    private static void checkMillis(String name, String value) {
+        try {
+            if (Long.parseLong(value) >= 0) return;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("The " + name + " option is not a number of milliseconds: " + value);
+    }
+
+    /**
+     * Compiled command line for one binary path and operation.
+     */
+    private static final class Command {
+        final String binaryPath;
+        final List<String> argv;
+
+        Command(String binaryPath, String opCode, String key, String[] arguments) {
+            String[] argv = new String[5 + arguments.length];
+            argv[0] = binaryPath;
+            argv[1] = "-d";
+            argv[2] = opCode;
+            argv[3] = "--key";
+            argv[4] = key;
+            System.arraycopy(arguments, 0, argv, 5, arguments.length);
+            this.binaryPath = binaryPath;
+            this.argv = Collections.unmodifiableList(Arrays.asList(argv));
+        }
+    }
+
+    /**
+     * Collects options; {@link #build()} validates them.
+     */
+    public static final class Builder {
+        private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets an option by its name in the {@code Map} API, or removes it if the value is null.
+         */
+        public Builder option(String name, String value) {
+            if (value == null) {
+                options.remove(name);
+            } else {
+                options.put(name, value);
+            }
+            return this;
+        }
+
+        private Builder flag(String name, boolean enabled) {
+            return option(name, enabled ? "true" : null);
+        }
+
+        public Builder key(String key) {
+            return option("key", key);
+        }
+
+        public Builder user(String user) {
+            return option("user", user);
+        }
+
+        public Builder tunnelName(String tunnelName) {
+            return option("tunnelName", tunnelName);
+        }
+
+        /**
+         * @param binaryPath LT binary to run instead of the downloaded one
+         */
+        public Builder binaryPath(String binaryPath) {
+            return option("binarypath", binaryPath);
+        }
+
+        /**
+         * @param port port the tunnel's local proxy listens on
+         */
+        public Builder port(int port) {
+            return option("port", String.valueOf(port));
+        }
+
+        public Builder infoAPIPort(int port) {
+            return option("infoAPIPort", String.valueOf(port));
+        }
+
+        public Builder proxyHost(String host) {
+            return option("proxyHost", host);
+        }
+
+        public Builder proxyPort(int port) {
+            return option("proxyPort", String.valueOf(port));
+        }
+
+        public Builder proxyUser(String user) {
+            return option("proxyUser", user);
+        }
+
+        public Builder proxyPass(String password) {
+            return option("proxyPass", password);
+        }
+
+        public Builder logFile(String logFile) {
+            return option("logFile", logFile);
+        }
+
+        public Builder dir(String dir) {
+            return option("dir", dir);
+        }
+
+        public Builder localDomains(String domains) {
+            return option("localDomains", domains);
+        }
+
+        public Builder sharedTunnel(boolean shared) {
+            return flag("sharedTunnel", shared);
+        }
+
+        public Builder verbose(boolean verbose) {
+            return flag("v", verbose);
+        }
+
+        /**
+         * Checks the local targets before the binary is launched, failing the start if one is
+         * missing: hosts of the localDomains, dns and proxy options must resolve, the proxy must
+         * accept connections and the port option must be free.
+         *
+         * @param targets {@code host:port} of further targets that must accept connections, such
+         *                as the app under test
+         */
+        public Builder preflight(String... targets) {
+            return option(Preflight.OPTION, targets.length == 0 ? "true" : String.join(",", targets));
+        }
+
+        /**
+         * @param millis time all preflight checks together may take, 2 seconds by default
+         */
+        public Builder preflightTimeout(long millis) {
+            return option(Preflight.TIMEOUT_OPTION, String.valueOf(millis));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the key is missing or a port is not a port number
+         */
+        public TunnelOptions build() {
+            return new TunnelOptions(options);
+        }
+    }
+}
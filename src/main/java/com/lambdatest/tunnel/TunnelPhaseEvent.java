@@ -0,0 +1,23 @@
+package com.lambdatest.tunnel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning one {@link StartupPhase} of a tunnel start.
+ */
+@Name("com.lambdatest.tunnel.StartupPhase")
+@Label("Tunnel Startup Phase")
+@Category({"LambdaTest", "Tunnel"})
+@Description("One phase of starting a LambdaTest tunnel")
+class TunnelPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Tunnel Name")
+    String tunnelName;
+}
@@ -0,0 +1,387 @@
+package com.lambdatest.tunnel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a number of tunnels connected and leases them to parallel test workers. Every tunnel gets
+ * its own tunnelName, derived from the tunnelName option. Dead tunnels are stopped and replaced in
+ * the background, backing off after failed replacements, and all of them are stopped in parallel
+ * on {@link #close()}.
+ */
+public class TunnelPool implements AutoCloseable {
+
+    /** Upper bound of the wait before a failed replacement is retried. */
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    /**
+     * How {@link #lease()} picks between healthy tunnels.
+     */
+    public enum Selection {
+        /** cycle through the tunnels in order */
+        ROUND_ROBIN,
+        /** pick the tunnel with the fewest active leases */
+        LEAST_LOADED
+    }
+
+    private final TunnelOptions options;
+    private final int size;
+
+    private int warmupConcurrency = 4;
+    private long maxLeaseWait = 60 * 1000;
+    private long healthCheckInterval = 5 * 1000;
+    private int maxLeasesPerTunnel = Integer.MAX_VALUE;
+    private Selection selection = Selection.LEAST_LOADED;
+
+    private final List<Member> members = new ArrayList<Member>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int next = 0;
+    private boolean closed = false;
+
+    private ExecutorService starter;
+    private ScheduledExecutorService monitor;
+
+    /**
+     * @param options Options every pooled Tunnel is started with
+     * @param size    number of tunnels to keep connected
+     */
+    public TunnelPool(Map<String, String> options, int size) {
+        this(TunnelOptions.of(options), size);
+    }
+
+    /**
+     * @param options Options every pooled Tunnel is started with
+     * @param size    number of tunnels to keep connected
+     */
+    public TunnelPool(TunnelOptions options, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.options = options;
+        this.size = size;
+    }
+
+    /**
+     * @param warmupConcurrency number of tunnels connecting at the same time
+     */
+    public void setWarmupConcurrency(int warmupConcurrency) {
+        this.warmupConcurrency = Math.max(1, warmupConcurrency);
+    }
+
+    /**
+     * @param millis time {@link #lease()} waits for a tunnel before failing
+     */
+    public void setMaxLeaseWait(long millis) {
+        this.maxLeaseWait = millis;
+    }
+
+    /**
+     * @param millis interval between liveness checks of the pooled tunnels
+     */
+    public void setHealthCheckInterval(long millis) {
+        this.healthCheckInterval = millis;
+    }
+
+    /**
+     * @param maxLeases number of workers that may share one tunnel at the same time
+     */
+    public void setMaxLeasesPerTunnel(int maxLeases) {
+        this.maxLeasesPerTunnel = Math.max(1, maxLeases);
+    }
+
+    public void setSelection(Selection selection) {
+        this.selection = selection;
+    }
+
+    /**
+     * Connects all tunnels of the pool, at most warmupConcurrency at a time, and starts watching
+     * them. If any tunnel fails to connect the others are stopped again.
+     *
+     * @throws Exception the failure of the first tunnel that did not connect
+     */
+    public void start() throws Exception {
+        starter = Executors.newFixedThreadPool(warmupConcurrency, TunnelExecutors.daemonThreads("lambdatest-tunnel-pool"));
+        String prefix = options.getTunnelName() != null ? options.getTunnelName() : "pool";
+
+        List<CompletableFuture<Tunnel>> starts = new ArrayList<CompletableFuture<Tunnel>>();
+        for (int i = 0; i < size; i++) {
+            String name = prefix + "-" + (i + 1);
+            Member member = new Member(name, options.toBuilder().tunnelName(name).build());
+            members.add(member);
+            starts.add(connect(member));
+        }
+        Exception failure = null;
+        for (CompletableFuture<Tunnel> start : starts) {
+            try {
+                start.join();
+            } catch (Exception e) {
+                if (failure == null) failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            close();
+            throw failure;
+        }
+
+        monitor = Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-pool-monitor"));
+        monitor.scheduleWithFixedDelay(this::checkMembers, healthCheckInterval, healthCheckInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases a connected tunnel. The same tunnel may be leased to several workers at once, up to
+     * maxLeasesPerTunnel.
+     *
+     * @return the lease, to be handed back with {@link #release(Lease)}
+     * @throws TunnelException if no tunnel became available within maxLeaseWait
+     */
+    public Lease lease() throws TunnelException, InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(maxLeaseWait);
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new TunnelException("Tunnel pool is closed");
+                }
+                Member member = select();
+                if (member != null) {
+                    member.leases++;
+                    return new Lease(member, member.tunnel);
+                }
+                if (remaining <= 0) {
+                    throw new TunnelException("No tunnel available within " + maxLeaseWait + "ms");
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands a leased tunnel back to the pool.
+     */
+    public void release(Lease lease) {
+        lock.lock();
+        try {
+            if (lease.released) return;
+            lease.released = true;
+            lease.member.leases--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tunnels currently connected
+     */
+    public int getHealthyCount() {
+        lock.lock();
+        try {
+            int healthy = 0;
+            for (Member member : members) {
+                if (member.healthy) healthy++;
+            }
+            return healthy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops watching and stops all tunnels in parallel.
+     */
+    public void close() {
+        List<CompletableFuture<Tunnel>> stops = new ArrayList<CompletableFuture<Tunnel>>();
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            for (Member member : members) {
+                member.healthy = false;
+                if (member.tunnel != null) {
+                    stops.add(member.tunnel.stopAsync());
+                }
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (monitor != null) monitor.shutdownNow();
+        for (CompletableFuture<Tunnel> stop : stops) {
+            try {
+                stop.join();
+            } catch (Exception ignored) {
+                // keep stopping the others
+            }
+        }
+        if (starter != null) starter.shutdownNow();
+    }
+
+    /**
+     * Creates the Tunnel instances of the pool.
+     */
+    protected Tunnel newTunnel() {
+        return new Tunnel();
+    }
+
+    private Member select() {
+        int count = members.size();
+        if (selection == Selection.ROUND_ROBIN) {
+            for (int i = 0; i < count; i++) {
+                Member member = members.get((next + i) % count);
+                if (member.isLeasable(maxLeasesPerTunnel)) {
+                    next = (next + i + 1) % count;
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        Member best = null;
+        for (Member member : members) {
+            if (member.isLeasable(maxLeasesPerTunnel) && (best == null || member.leases < best.leases)) {
+                best = member;
+            }
+        }
+        return best;
+    }
+
+    private CompletableFuture<Tunnel> connect(final Member member) {
+        final Tunnel tunnel = newTunnel();
+        return tunnel.startAsync(member.options, starter).whenComplete((started, error) -> {
+            lock.lock();
+            try {
+                member.replacing = false;
+                if (error != null) {
+                    // doubles with every failure in a row, starting at two health checks
+                    member.failures++;
+                    long delay = Math.min(MAX_RETRY_DELAY, healthCheckInterval << Math.min(member.failures, 20));
+                    member.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                    return;
+                }
+                member.failures = 0;
+                if (closed) {
+                    tunnel.stopAsync();
+                    return;
+                }
+                member.tunnel = tunnel;
+                member.healthy = true;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private void checkMembers() {
+        List<Member> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<Member>(members);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Member member : snapshot) {
+            boolean running;
+            try {
+                running = member.tunnel != null && member.tunnel.isRunning();
+            } catch (Exception e) {
+                running = false;
+            }
+
+            Tunnel dead;
+            lock.lock();
+            try {
+                if (closed) return;
+                if (running || member.replacing) continue;
+                if (member.failures > 0 && System.nanoTime() - member.retryAt < 0) continue;
+                member.healthy = false;
+                member.replacing = true;
+                dead = member.tunnel;
+                member.tunnel = null;
+            } finally {
+                lock.unlock();
+            }
+            replace(member, dead);
+        }
+    }
+
+    /**
+     * Stops what is left of a dead tunnel, as its daemon may linger and it is still counted by
+     * {@link Tunnels}, then connects a new one in its place.
+     */
+    private void replace(final Member member, Tunnel dead) {
+        if (dead == null) {
+            connect(member);
+            return;
+        }
+        dead.stopAsync(starter).whenComplete((stopped, error) -> connect(member));
+    }
+
+    /**
+     * A slot of the pool; the tunnel in it is replaced when it dies.
+     */
+    private static final class Member {
+        final String name;
+        // compiled once, reused by every replacement of the tunnel
+        final TunnelOptions options;
+        volatile Tunnel tunnel;
+        boolean healthy;
+        boolean replacing;
+        int leases;
+        // failed replacements in a row, and when the next one may be tried
+        int failures;
+        long retryAt;
+
+        Member(String name, TunnelOptions options) {
+            this.name = name;
+            this.options = options;
+        }
+
+        boolean isLeasable(int maxLeases) {
+            return healthy && leases < maxLeases;
+        }
+    }
+
+    /**
+     * A tunnel leased from the pool. Closing the lease releases it.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Member member;
+        private final Tunnel tunnel;
+        private boolean released;
+
+        private Lease(Member member, Tunnel tunnel) {
+            this.member = member;
+            this.tunnel = tunnel;
+        }
+
+        public Tunnel getTunnel() {
+            return tunnel;
+        }
+
+        /**
+         * @return the tunnelName to put in the session capabilities
+         */
+        public String getTunnelName() {
+            return member.name;
+        }
+
+        public void close() {
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures what the tunnel adds to requests against a locally hosted app. A local HTTP echo server
+ * stands in for the app, and requests carrying a payload of the configured size are sent to it
+ * through the proxy the tunnel binary listens on, from a number of concurrent clients. Latency
+ * percentiles and throughput are reported, and the same run can be made directly against the echo
+ * server as a baseline.
+ * <p>
+ * Run from the command line as
+ * {@code java com.lambdatest.tunnel.TunnelProbe <proxyHost> <proxyPort> [payloadBytes] [concurrency] [requests]}.
+ */
+public class TunnelProbe {
+
+    private static final String ECHO_PATH = "/echo";
+
+    private final Proxy proxy;
+
+    private int payloadSize = 16 * 1024;
+    private int concurrency = 4;
+    private int requests = 200;
+    private int warmupRequests = 20;
+    private int timeout = 30 * 1000;
+
+    /**
+     * @param tunnel a Tunnel started with the port option, whose proxy is reached on the loopback
+     *               address. The proxyHost option names the upstream proxy of the binary and is
+     *               not used.
+     */
+    public TunnelProbe(Tunnel tunnel) {
+        this("127.0.0.1", Integer.parseInt(option(tunnel, "port")));
+    }
+
+    /**
+     * @param proxyHost host of the proxy requests are sent through
+     * @param proxyPort port of that proxy
+     */
+    public TunnelProbe(String proxyHost, int proxyPort) {
+        this.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
+    }
+
+    private static String option(Tunnel tunnel, String name) {
+        String value = tunnel.startOptions != null ? tunnel.startOptions.get(name) : null;
+        if (value == null) {
+            throw new IllegalArgumentException("Tunnel was not started with the " + name + " option");
+        }
+        return value.trim();
+    }
+
+    /**
+     * @param bytes size of the body sent, and echoed back, with every request
+     */
+    public void setPayloadSize(int bytes) {
+        this.payloadSize = Math.max(0, bytes);
+    }
+
+    /**
+     * @param concurrency number of clients sending requests at the same time
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * @param requests number of measured requests
+     */
+    public void setRequests(int requests) {
+        this.requests = Math.max(1, requests);
+    }
+
+    /**
+     * @param requests number of requests sent before measuring, to open connections
+     */
+    public void setWarmupRequests(int requests) {
+        this.warmupRequests = Math.max(0, requests);
+    }
+
+    /**
+     * @param millis connect and read timeout of every request
+     */
+    public void setTimeout(int millis) {
+        this.timeout = millis;
+    }
+
+    /**
+     * Sends the requests through the tunnel's proxy.
+     */
+    public Result run() throws Exception {
+        return run(proxy);
+    }
+
+    /**
+     * Sends the requests straight to the echo server, for comparison with {@link #run()}.
+     */
+    public Result runDirect() throws Exception {
+        return run(Proxy.NO_PROXY);
+    }
+
+    private Result run(final Proxy via) throws Exception {
+        HttpServer echo = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        echo.createContext(ECHO_PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                echo(exchange);
+            }
+        });
+        ExecutorService server = Executors.newCachedThreadPool(TunnelExecutors.daemonThreads("lambdatest-tunnel-echo"));
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency, TunnelExecutors.daemonThreads("lambdatest-tunnel-probe"));
+        echo.setExecutor(server);
+        echo.start();
+        try {
+            final URL url = new URL("http://127.0.0.1:" + echo.getAddress().getPort() + ECHO_PATH);
+            final byte[] payload = new byte[payloadSize];
+            Arrays.fill(payload, (byte) 'x');
+
+            send(clients, url, via, payload, warmupRequests, null, new AtomicInteger(), new AtomicInteger());
+
+            long[] latencies = new long[requests];
+            AtomicInteger measured = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            long started = System.nanoTime();
+            send(clients, url, via, payload, requests, latencies, measured, errors);
+            long elapsed = System.nanoTime() - started;
+            return new Result(Arrays.copyOf(latencies, measured.get()), errors.get(),
+                    2L * payloadSize * measured.get(), elapsed);
+        } finally {
+            clients.shutdownNow();
+            echo.stop(0);
+            server.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends {@code count} requests. The latency of each successful one is put in
+     * {@code latencies} at the next index of {@code measured}; failures are only counted.
+     */
+    private void send(ExecutorService clients, final URL url, final Proxy via, final byte[] payload, int count,
+                      final long[] latencies, final AtomicInteger measured, final AtomicInteger errors) throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+        final int total = count;
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(clients.submit(new Runnable() {
+                public void run() {
+                    byte[] buffer = new byte[64 * 1024];
+                    while (next.getAndIncrement() < total) {
+                        long started = System.nanoTime();
+                        try {
+                            request(url, via, payload, buffer);
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        long latency = System.nanoTime() - started;
+                        if (latencies != null) latencies[measured.getAndIncrement()] = latency;
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+    }
+
+    private void request(URL url, Proxy via, byte[] payload, byte[] buffer) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection(via);
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(payload.length);
+        OutputStream out = conn.getOutputStream();
+        try {
+            out.write(payload);
+        } finally {
+            out.close();
+        }
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Echo returned " + conn.getResponseCode());
+        }
+        long received = 0;
+        InputStream in = conn.getInputStream();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                received += n;
+            }
+        } finally {
+            in.close();
+        }
+        if (received != payload.length) {
+            throw new IOException("Echo returned " + received + " of " + payload.length + " bytes");
+        }
+    }
+
+    private static void echo(HttpExchange exchange) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = exchange.getRequestBody();
+        long length = Long.parseLong(exchange.getRequestHeaders().getFirst("Content-Length") != null
+                ? exchange.getRequestHeaders().getFirst("Content-Length") : "0");
+        exchange.sendResponseHeaders(200, length > 0 ? length : -1);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Latency and throughput of one run. Latencies are those of the successful requests only.
+     */
+    public static final class Result {
+        private final long[] sorted;
+        private final int errors;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        /**
+         * @param latencies latencies of the successful requests
+         */
+        Result(long[] latencies, int errors, long bytes, long elapsedNanos) {
+            this.sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.errors = errors;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of requests sent, failed ones included
+         */
+        public int getRequests() {
+            return sorted.length + errors;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return latency below which that share of the successful requests completed, zero if
+         * none succeeded
+         */
+        public Duration getPercentile(double percentile) {
+            if (sorted.length == 0) return Duration.ZERO;
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return Duration.ofNanos(sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))]);
+        }
+
+        public Duration getP50() {
+            return getPercentile(50);
+        }
+
+        public Duration getP95() {
+            return getPercentile(95);
+        }
+
+        public Duration getP99() {
+            return getPercentile(99);
+        }
+
+        /**
+         * @return payload megabytes (10^6 bytes) per second moved in both directions
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? bytes / 1e6 / (elapsedNanos / 1e9) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, p50 %.2fms, p95 %.2fms, p99 %.2fms, %.2f MB/s",
+                    getRequests(), errors, getP50().toNanos() / 1e6, getP95().toNanos() / 1e6,
+                    getP99().toNanos() / 1e6, getThroughput());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: TunnelProbe <proxyHost> <proxyPort> [payloadBytes] [concurrency] [requests]");
+            System.exit(2);
+        }
+        TunnelProbe probe = new TunnelProbe(args[0], Integer.parseInt(args[1]));
+        if (args.length > 2) probe.setPayloadSize(Integer.parseInt(args[2]));
+        if (args.length > 3) probe.setConcurrency(Integer.parseInt(args[3]));
+        if (args.length > 4) probe.setRequests(Integer.parseInt(args[4]));
+        System.out.println("direct:  " + probe.runDirect());
+        System.out.println("tunnel:  " + probe.run());
+    }
+}
@@ -0,0 +1,27 @@
+package com.lambdatest.tunnel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning the downtime of a supervised tunnel, from the moment it was
+ * found dead until it connected again.
+ */
+@Name("com.lambdatest.tunnel.Reconnect")
+@Label("Tunnel Reconnect")
+@Category({"LambdaTest", "Tunnel"})
+@Description("Downtime of a LambdaTest tunnel restarted by its supervisor")
+class TunnelReconnectEvent extends Event {
+
+    @Label("Tunnel Name")
+    String tunnelName;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Attempts")
+    int attempts;
+}
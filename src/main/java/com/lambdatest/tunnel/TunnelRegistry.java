@@ -0,0 +1,443 @@
+package com.lambdatest.tunnel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Registry of running tunnels shared by all JVMs of a machine, so that test forks and modules of
+ * one build attach to a single tunnel instead of each connecting their own. It is a small memory
+ * mapped file of fixed size slots, one per tunnel, keyed by a digest of the start options. Each
+ * slot holds the tunnel's pid, its infoAPIPort, its state and the pids of the JVMs attached to
+ * it; the number of live holders is the reference count.
+ * <p>
+ * Every operation runs under an exclusive lock on the file, taken like {@link BinaryLock}, but
+ * the lock is not held while a tunnel starts or stops: its slot is marked as starting or stopping
+ * instead, and callers for that tunnel poll until it settles while callers for other tunnels go
+ * ahead. Holders and tunnels whose processes died are pruned on the way. A tunnel that outlived
+ * all of its holders is handed to the next JVM that attaches, and stopped when that one detaches,
+ * so a killed fork neither keeps a tunnel to itself nor leaves a second one to be started.
+ */
+final class TunnelRegistry {
+
+    static final String DIR_PROPERTY = "lambdatest.tunnel.registryDir";
+    static final String FILE_NAME = "LT.registry";
+
+    private static final int MAGIC = 0x4c545232;
+    private static final int HEADER = 8;
+    private static final int KEY_LENGTH = 32;
+    private static final int MAX_HOLDERS = 32;
+    private static final int PID = KEY_LENGTH;
+    private static final int PORT = PID + 4;
+    private static final int STATE = PORT + 4;
+    private static final int COUNT = STATE + 4;
+    private static final int HOLDERS = COUNT + 4;
+    private static final int SLOT_SIZE = HOLDERS + 4 * MAX_HOLDERS;
+    private static final int SLOTS = 64;
+    private static final int FILE_SIZE = HEADER + SLOTS * SLOT_SIZE;
+
+    /** slot states; a cleared slot is free */
+    private static final int STARTING = 1;
+    private static final int RUNNING = 2;
+    private static final int STOPPING = 3;
+
+    /** How often a caller checks whether another one finished starting or stopping a tunnel. */
+    private static final long BUSY_POLL_MILLIS = 100;
+
+    private static final ConcurrentMap<String, ReentrantLock> LOCAL_LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    /**
+     * Starts a tunnel that is not running yet. Other callers for the same tunnel wait meanwhile.
+     */
+    interface Starter {
+        /**
+         * @return pid of the started tunnel
+         */
+        int start() throws Exception;
+    }
+
+    /**
+     * Stops a tunnel when its last holder detaches. Callers for the same tunnel wait meanwhile.
+     */
+    interface Stopper {
+        void stop() throws Exception;
+    }
+
+    private final File file;
+    private final ReentrantLock localLock;
+    private final int holder;
+
+    TunnelRegistry() throws IOException {
+        this(new File(System.getProperty(DIR_PROPERTY, System.getProperty("user.home") + "/.lambdatest")),
+                (int) ProcessHandle.current().pid());
+    }
+
+    /**
+     * @param dir    directory of the registry file
+     * @param holder pid recorded for the tunnels attached through this registry
+     */
+    TunnelRegistry(File dir, int holder) throws IOException {
+        dir.mkdirs();
+        this.file = new File(dir, FILE_NAME);
+        this.holder = holder;
+        String key = file.getCanonicalPath();
+        ReentrantLock lock = LOCAL_LOCKS.get(key);
+        if (lock == null) {
+            ReentrantLock created = new ReentrantLock();
+            lock = LOCAL_LOCKS.putIfAbsent(key, created);
+            if (lock == null) lock = created;
+        }
+        this.localLock = lock;
+    }
+
+    /**
+     * Digest identifying a tunnel by its start options; tunnels started with the same options are
+     * interchangeable.
+     */
+    static byte[] keyOf(Map<String, String> options) {
+        MessageDigest digest = BinaryManifest.newDigest();
+        for (Map.Entry<String, String> option : new TreeMap<String, String>(options).entrySet()) {
+            digest.update(option.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '=');
+            if (option.getValue() != null) digest.update(option.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Attaches to the tunnel registered under {@code key} if it is alive, otherwise starts one.
+     * The slot is marked as starting while the starter runs, so that concurrent callers for the
+     * same tunnel wait for it and attach instead of starting their own.
+     *
+     * @param key         digest of the start options
+     * @param infoAPIPort info API port of the tunnel, 0 if none
+     * @param alive       tells whether a tunnel pid is still running
+     * @param starter     starts the tunnel if none is registered
+     * @return pid of the attached tunnel
+     */
+    int attach(byte[] key, int infoAPIPort, IntPredicate alive, Starter starter) throws Exception {
+        while (true) {
+            Locked registry = lock();
+            try {
+                int slot = registry.find(key, alive);
+                if (slot >= 0 && registry.state(slot) == RUNNING) {
+                    registry.addHolder(slot, holder);
+                    return registry.tunnelPid(slot);
+                }
+                if (slot < 0) {
+                    slot = registry.freeSlot();
+                    if (slot < 0) {
+                        throw new TunnelException("Tunnel registry " + file + " is full");
+                    }
+                    registry.put(slot, key, 0, infoAPIPort, STARTING, holder);
+                    break;
+                }
+            } finally {
+                registry.close();
+            }
+            // started or stopped by another caller right now
+            Thread.sleep(BUSY_POLL_MILLIS);
+        }
+
+        int pid = 0;
+        try {
+            pid = starter.start();
+            return pid;
+        } finally {
+            started(key, infoAPIPort, alive, pid);
+        }
+    }
+
+    /**
+     * Records the outcome of a start: the tunnel and its starter as first holder, or nothing if
+     * the start failed.
+     */
+    private void started(byte[] key, int infoAPIPort, IntPredicate alive, int pid) throws IOException {
+        Locked registry = lock();
+        try {
+            int slot = registry.find(key, alive);
+            if (slot >= 0 && registry.state(slot) == STARTING) {
+                if (pid == 0) {
+                    registry.clear(slot);
+                    return;
+                }
+                registry.setTunnel(slot, pid, RUNNING);
+            } else if (pid != 0 && slot < 0 && (slot = registry.freeSlot()) >= 0) {
+                // the registry was reset meanwhile
+                registry.put(slot, key, pid, infoAPIPort, RUNNING, holder);
+            }
+        } finally {
+            registry.close();
+        }
+    }
+
+    /**
+     * Drops one reference of this JVM to the tunnel registered under {@code key}, and stops it if
+     * that was the last one. The slot is marked as stopping while the stopper runs, so that a
+     * concurrent attach waits and then starts a new tunnel.
+     *
+     * @return true if the tunnel was stopped
+     */
+    boolean detach(byte[] key, IntPredicate alive, Stopper stopper) throws Exception {
+        int pid;
+        Locked registry = lock();
+        try {
+            int slot = registry.find(key, alive);
+            if (slot < 0 || registry.state(slot) != RUNNING) return false;
+            if (registry.removeHolder(slot, holder) > 0) return false;
+            pid = registry.tunnelPid(slot);
+            // held by the stopping JVM, so the mark goes away if it dies
+            registry.setTunnel(slot, pid, STOPPING);
+            registry.addHolder(slot, holder);
+        } finally {
+            registry.close();
+        }
+
+        boolean stopped = false;
+        try {
+            stopper.stop();
+            stopped = true;
+            return true;
+        } finally {
+            stopped(key, alive, pid, stopped);
+        }
+    }
+
+    /**
+     * Records the outcome of a stop: the slot is freed, unless the stop failed and the tunnel is
+     * still running, in which case it is left without holders for the next caller.
+     */
+    private void stopped(byte[] key, IntPredicate alive, int pid, boolean stopped) throws IOException {
+        Locked registry = lock();
+        try {
+            int slot = registry.find(key, alive);
+            if (slot < 0 || registry.state(slot) != STOPPING) return;
+            if (!stopped && alive.test(pid)) {
+                registry.removeHolder(slot, holder);
+                registry.setTunnel(slot, pid, RUNNING);
+            } else {
+                registry.clear(slot);
+            }
+        } finally {
+            registry.close();
+        }
+    }
+
+    /**
+     * Drops one reference of this JVM to the tunnel registered under {@code key} without stopping
+     * it, for a caller that kills the tunnel itself if it was the last holder.
+     *
+     * @return true if that was the last reference; the tunnel is then forgotten
+     */
+    boolean drop(byte[] key, IntPredicate alive) throws IOException {
+        Locked registry = lock();
+        try {
+            int slot = registry.find(key, alive);
+            if (slot < 0 || registry.state(slot) != RUNNING) return false;
+            if (registry.removeHolder(slot, holder) > 0) return false;
+            registry.clear(slot);
+            return true;
+        } finally {
+            registry.close();
+        }
+    }
+
+    /**
+     * @return number of live holders of the tunnel registered under {@code key}, 0 if none
+     */
+    int references(byte[] key, IntPredicate alive) throws IOException {
+        Locked registry = lock();
+        try {
+            int slot = registry.find(key, alive);
+            return slot < 0 || registry.state(slot) != RUNNING ? 0 : registry.holders(slot);
+        } finally {
+            registry.close();
+        }
+    }
+
+    private Locked lock() throws IOException {
+        localLock.lock();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            FileLock fileLock = channel.lock();
+            if (raf.length() < FILE_SIZE) {
+                raf.setLength(FILE_SIZE);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC) {
+                // new or foreign file: start from an empty table
+                for (int i = 0; i < FILE_SIZE; i++) buffer.put(i, (byte) 0);
+                buffer.putInt(0, MAGIC);
+            }
+            return new Locked(raf, fileLock, buffer);
+        } catch (IOException e) {
+            if (raf != null) raf.close();
+            localLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            if (raf != null) raf.close();
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * The mapped table while the lock is held.
+     */
+    private final class Locked {
+        private final RandomAccessFile raf;
+        private final FileLock fileLock;
+        private final MappedByteBuffer buffer;
+
+        Locked(RandomAccessFile raf, FileLock fileLock, MappedByteBuffer buffer) {
+            this.raf = raf;
+            this.fileLock = fileLock;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Finds the slot of {@code key}, pruning dead holders. A running tunnel is kept as long as
+         * its process is alive, even without holders, so it can be handed to the next caller. A
+         * starting or stopping mark is dropped once the JVM that set it is gone.
+         */
+        int find(byte[] key, IntPredicate alive) {
+            byte[] stored = new byte[KEY_LENGTH];
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (state(slot) == 0) continue;
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset(slot));
+                view.get(stored);
+                if (!Arrays.equals(stored, key)) continue;
+
+                pruneHolders(slot);
+                int state = state(slot);
+                if (state == RUNNING || (state == STOPPING && holders(slot) == 0)) {
+                    if (!alive.test(tunnelPid(slot))) {
+                        clear(slot);
+                        return -1;
+                    }
+                    setTunnel(slot, tunnelPid(slot), RUNNING);
+                } else if (holders(slot) == 0) {
+                    // the starting JVM died; nothing is known of its tunnel
+                    clear(slot);
+                    return -1;
+                }
+                return slot;
+            }
+            return -1;
+        }
+
+        int freeSlot() {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (state(slot) == 0) return slot;
+            }
+            return -1;
+        }
+
+        void put(int slot, byte[] key, int pid, int infoAPIPort, int state, int holder) {
+            clear(slot);
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset(slot));
+            view.put(key, 0, KEY_LENGTH);
+            buffer.putInt(offset(slot) + PORT, infoAPIPort);
+            setTunnel(slot, pid, state);
+            addHolder(slot, holder);
+        }
+
+        void setTunnel(int slot, int pid, int state) {
+            buffer.putInt(offset(slot) + PID, pid);
+            buffer.putInt(offset(slot) + STATE, state);
+        }
+
+        int tunnelPid(int slot) {
+            return buffer.getInt(offset(slot) + PID);
+        }
+
+        int state(int slot) {
+            return buffer.getInt(offset(slot) + STATE);
+        }
+
+        int holders(int slot) {
+            return buffer.getInt(offset(slot) + COUNT);
+        }
+
+        void addHolder(int slot, int holder) {
+            int count = holders(slot);
+            if (count == MAX_HOLDERS) {
+                throw new IllegalStateException("Too many holders of tunnel " + tunnelPid(slot));
+            }
+            buffer.putInt(holderOffset(slot, count), holder);
+            buffer.putInt(offset(slot) + COUNT, count + 1);
+        }
+
+        /**
+         * Removes one occurrence of {@code holder}; a JVM holds one entry per attached Tunnel.
+         *
+         * @return number of holders left
+         */
+        int removeHolder(int slot, int holder) {
+            int count = holders(slot);
+            for (int i = 0; i < count; i++) {
+                if (buffer.getInt(holderOffset(slot, i)) == holder) {
+                    removeHolderAt(slot, i);
+                    return count - 1;
+                }
+            }
+            return count;
+        }
+
+        private void pruneHolders(int slot) {
+            for (int i = holders(slot) - 1; i >= 0; i--) {
+                if (!ProcessHandle.of(buffer.getInt(holderOffset(slot, i))).isPresent()) {
+                    removeHolderAt(slot, i);
+                }
+            }
+        }
+
+        private void removeHolderAt(int slot, int index) {
+            int last = holders(slot) - 1;
+            buffer.putInt(holderOffset(slot, index), buffer.getInt(holderOffset(slot, last)));
+            buffer.putInt(holderOffset(slot, last), 0);
+            buffer.putInt(offset(slot) + COUNT, last);
+        }
+
+        void clear(int slot) {
+            for (int i = 0; i < SLOT_SIZE; i++) buffer.put(offset(slot) + i, (byte) 0);
+        }
+
+        private int offset(int slot) {
+            return HEADER + slot * SLOT_SIZE;
+        }
+
+        private int holderOffset(int slot, int index) {
+            return offset(slot) + HOLDERS + 4 * index;
+        }
+
+        void close() throws IOException {
+            try {
+                buffer.force();
+                fileLock.release();
+                raf.close();
+            } finally {
+                localLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the resources used by the daemonised tunnel process from {@code /proc}, for sizing the
+ * machines tunnels run on. Each sample reads {@code /proc/<pid>/stat} and {@code status}, lists
+ * {@code fd}, and matches the socket descriptors against {@code net/tcp} and {@code net/tcp6}.
+ * The last samples are kept in a rolling window of which the latest, peak and average values are
+ * exposed per {@link Resource}.
+ * <p>
+ * Files are read into buffers that are reused between samples and parsed in place, so a sample
+ * allocates little beyond the paths of the process's descriptors. Only available on Linux; see
+ * {@link #isSupported()}.
+ */
+public class TunnelResourceSampler implements AutoCloseable {
+
+    /**
+     * What is sampled, each in its own unit.
+     */
+    public enum Resource {
+        /** CPU time used per wall-clock time, in millicores: 1000 is one core fully busy. */
+        CPU,
+        /** Resident set size in bytes. */
+        RSS,
+        /** Open file descriptors, sockets included. */
+        FILE_DESCRIPTORS,
+        /** Open sockets of any family. */
+        SOCKETS,
+        /** Established TCP connections. */
+        CONNECTIONS,
+        /** Threads. */
+        THREADS
+    }
+
+    static final int DEFAULT_WINDOW = 60;
+
+    // USER_HZ, the unit of the times in /proc/<pid>/stat, is 100 on every architecture Linux
+    // exposes to user space
+    private static final long TICKS_PER_SECOND = 100;
+
+    private static final int TCP_ESTABLISHED = 0x01;
+    private static final byte[] VM_RSS = "VmRSS:".getBytes(StandardCharsets.US_ASCII);
+    private static final String SOCKET_LINK = "socket:[";
+
+    private final int pid;
+    private final Path stat;
+    private final Path status;
+    private final Path fd;
+    private final Path[] tcp;
+
+    // guarded by this
+    private Window[] windows = newWindows(DEFAULT_WINDOW);
+    private byte[] buffer = new byte[8192];
+    private long[] inodes = new long[64];
+    private long lastTicks = -1;
+    private long lastNanos;
+    private long sampleCount;
+    private boolean exited;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param tunnel a running Tunnel
+     */
+    public TunnelResourceSampler(Tunnel tunnel) {
+        this(pid(tunnel));
+    }
+
+    /**
+     * @param pid pid of the tunnel process
+     */
+    public TunnelResourceSampler(int pid) {
+        this.pid = pid;
+        Path proc = Paths.get("/proc", String.valueOf(pid));
+        stat = proc.resolve("stat");
+        status = proc.resolve("status");
+        fd = proc.resolve("fd");
+        tcp = new Path[]{proc.resolve("net/tcp"), proc.resolve("net/tcp6")};
+    }
+
+    private static int pid(Tunnel tunnel) {
+        if (tunnel.pid == 0) {
+            throw new IllegalArgumentException("Tunnel is not running");
+        }
+        return tunnel.pid;
+    }
+
+    /**
+     * @return true if this platform has a {@code /proc} file system to sample
+     */
+    public static boolean isSupported() {
+        return Files.isDirectory(Paths.get("/proc/self/fd"));
+    }
+
+    /**
+     * Sets the number of samples the peaks and averages are computed over, discarding the
+     * samples taken so far. Defaults to 60.
+     *
+     * @param samples size of the window
+     */
+    public synchronized void setWindow(int samples) {
+        windows = newWindows(Math.max(1, samples));
+    }
+
+    /**
+     * Samples the process on a background thread until it exits.
+     *
+     * @param intervalMillis time between samples
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) return;
+        final ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-resources"));
+        scheduler = executor;
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if (!sample()) executor.shutdown();
+                } catch (IOException e) {
+                    // the process may be exiting; the next sample tells
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes one sample. CPU usage is known from the second sample on.
+     *
+     * @return false if the process is gone
+     * @throws IOException if {@code /proc} could not be read, e.g. for lack of permission
+     */
+    public synchronized boolean sample() throws IOException {
+        if (exited) return false;
+        long nanos = System.nanoTime();
+        int statLength = read(stat);
+        if (statLength < 0) {
+            exited = true;
+            return false;
+        }
+        // the command name in parentheses may contain spaces, the fields after it may not
+        int fields = lastIndexOf(buffer, statLength, (byte) ')') + 2;
+        long ticks = token(buffer, fields, statLength, 11) + token(buffer, fields, statLength, 12);
+        long threads = token(buffer, fields, statLength, 17);
+        if (lastTicks >= 0 && nanos > lastNanos) {
+            long millicores = (ticks - lastTicks) * 1000L * TimeUnit.SECONDS.toNanos(1) / TICKS_PER_SECOND
+                    / (nanos - lastNanos);
+            windows[Resource.CPU.ordinal()].add(millicores);
+        }
+        lastTicks = ticks;
+        lastNanos = nanos;
+
+        int statusLength = read(status);
+        if (statusLength < 0) {
+            exited = true;
+            return false;
+        }
+        long rssKb = lineValue(buffer, statusLength, VM_RSS);
+
+        long descriptors = 0;
+        int sockets = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(fd)) {
+            for (Path entry : entries) {
+                descriptors++;
+                String target;
+                try {
+                    target = Files.readSymbolicLink(entry).toString();
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (target.startsWith(SOCKET_LINK)) {
+                    if (sockets == inodes.length) inodes = Arrays.copyOf(inodes, sockets * 2);
+                    inodes[sockets++] = Long.parseLong(target.substring(SOCKET_LINK.length(), target.length() - 1));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            exited = true;
+            return false;
+        }
+
+        long connections = 0;
+        if (sockets > 0) {
+            Arrays.sort(inodes, 0, sockets);
+            for (Path table : tcp) {
+                connections += established(table, sockets);
+            }
+        }
+
+        windows[Resource.RSS.ordinal()].add(Math.max(0, rssKb) * 1024);
+        windows[Resource.FILE_DESCRIPTORS.ordinal()].add(descriptors);
+        windows[Resource.SOCKETS.ordinal()].add(sockets);
+        windows[Resource.CONNECTIONS.ordinal()].add(connections);
+        windows[Resource.THREADS.ordinal()].add(threads);
+        sampleCount++;
+        return true;
+    }
+
+    /**
+     * Stops sampling.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return number of samples taken so far
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return true once a sample found the process gone
+     */
+    public synchronized boolean hasExited() {
+        return exited;
+    }
+
+    /**
+     * @return the value of the last sample, or -1 if there is none
+     */
+    public synchronized long getLatest(Resource resource) {
+        return windows[resource.ordinal()].latest();
+    }
+
+    /**
+     * @return the largest value in the window, or -1 if it is empty
+     */
+    public synchronized long getPeak(Resource resource) {
+        return windows[resource.ordinal()].peak();
+    }
+
+    /**
+     * @return the mean of the values in the window, or -1 if it is empty
+     */
+    public synchronized double getAverage(Resource resource) {
+        return windows[resource.ordinal()].average();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder("pid ").append(pid);
+        for (Resource resource : Resource.values()) {
+            out.append(", ").append(resource).append(' ').append(getLatest(resource))
+                    .append(" (peak ").append(getPeak(resource))
+                    .append(String.format(", avg %.1f)", getAverage(resource)));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Counts the established connections in a socket table whose inodes are among the first
+     * {@code count} of {@link #inodes}.
+     */
+    private long established(Path table, int count) throws IOException {
+        int length = read(table);
+        if (length < 0) return 0;
+        long established = 0;
+        // the first line is the header
+        int line = indexOf(buffer, 0, length, (byte) '\n') + 1;
+        while (line > 0 && line < length) {
+            int end = indexOf(buffer, line, length, (byte) '\n');
+            if (end < 0) end = length;
+            // columns: sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode
+            long state = hexToken(buffer, line, end, 3);
+            if (state == TCP_ESTABLISHED) {
+                long inode = token(buffer, line, end, 9);
+                if (Arrays.binarySearch(inodes, 0, count, inode) >= 0) established++;
+            }
+            line = end + 1;
+        }
+        return established;
+    }
+
+    /**
+     * Reads a whole file into {@link #buffer}, growing it if needed.
+     *
+     * @return number of bytes read, or -1 if the file does not exist
+     */
+    private int read(Path file) throws IOException {
+        InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        try {
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            return length;
+        } catch (IOException e) {
+            // reading /proc of a process that just exited fails with ESRCH
+            if (!Files.exists(file)) return -1;
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Window[] newWindows(int size) {
+        Window[] windows = new Window[Resource.values().length];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window(size);
+        }
+        return windows;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int length, byte b) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the decimal number that is the {@code index}th space-separated token from
+     * {@code from}, or -1
+     */
+    private static long token(byte[] bytes, int from, int to, int index) {
+        int start = tokenStart(bytes, from, to, index);
+        if (start < 0) return -1;
+        long value = 0;
+        for (int i = start; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private static long hexToken(byte[] bytes, int from, int to, int index) {
+        int start = tokenStart(bytes, from, to, index);
+        if (start < 0) return -1;
+        long value = 0;
+        for (int i = start; i < to; i++) {
+            int digit = Character.digit(bytes[i], 16);
+            if (digit < 0) break;
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private static int tokenStart(byte[] bytes, int from, int to, int index) {
+        int i = from;
+        for (int token = 0; ; token++) {
+            while (i < to && bytes[i] == ' ') i++;
+            if (i >= to) return -1;
+            if (token == index) return i;
+            while (i < to && bytes[i] != ' ') i++;
+        }
+    }
+
+    /**
+     * @return the number following the line starting with {@code key}, or -1
+     */
+    private static long lineValue(byte[] bytes, int length, byte[] key) {
+        int line = 0;
+        while (line < length) {
+            int end = indexOf(bytes, line, length, (byte) '\n');
+            if (end < 0) end = length;
+            if (startsWith(bytes, line, end, key)) {
+                long value = 0;
+                for (int i = line + key.length; i < end; i++) {
+                    if (bytes[i] >= '0' && bytes[i] <= '9') {
+                        value = value * 10 + (bytes[i] - '0');
+                    } else if (value > 0) {
+                        break;
+                    }
+                }
+                return value;
+            }
+            line = end + 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[from + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The last samples of one resource.
+     */
+    private static final class Window {
+        private final long[] values;
+        private int next;
+        private int size;
+        private long sum;
+
+        Window(int capacity) {
+            values = new long[capacity];
+        }
+
+        void add(long value) {
+            if (size == values.length) {
+                sum -= values[next];
+            } else {
+                size++;
+            }
+            values[next] = value;
+            sum += value;
+            next = (next + 1) % values.length;
+        }
+
+        long latest() {
+            return size == 0 ? -1 : values[(next - 1 + values.length) % values.length];
+        }
+
+        long peak() {
+            long peak = -1;
+            for (int i = 0; i < size; i++) {
+                peak = Math.max(peak, values[i]);
+            }
+            return peak;
+        }
+
+        double average() {
+            return size == 0 ? -1 : (double) sum / size;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.lambdatest.tunnel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a started tunnel connected for long running suites. The tunnel process is watched, and if
+ * the tunnel was started with the infoAPIPort option the info API is probed as well; a probe that
+ * fails or takes longer than the stall timeout counts as a stall. When the process exits or too
+ * many probes in a row stall, the tunnel is stopped and started again with its original options,
+ * retrying with exponential backoff and jitter until it connects. A tunnel that is stopped or
+ * detached on purpose is left alone.
+ * <p>
+ * Outages are reported to {@link TunnelSupervisorListener}s and recorded as
+ * {@link TunnelReconnectEvent}s spanning the downtime.
+ */
+public class TunnelSupervisor implements AutoCloseable {
+
+    private final Tunnel tunnel;
+    private final String probeUrl;
+    private final List<TunnelSupervisorListener> listeners = new CopyOnWriteArrayList<TunnelSupervisorListener>();
+
+    private long checkInterval = 5 * 1000;
+    private int stallTimeout = 5 * 1000;
+    private int maxStalls = 3;
+    private long initialBackoff = 1000;
+    private long maxBackoff = 60 * 1000;
+
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong totalDowntime = new AtomicLong();
+    private volatile long lastDowntime;
+
+    private ScheduledExecutorService scheduler;
+    private final TunnelExitListener exitListener = new TunnelExitListener() {
+        public void onExit(Tunnel tunnel, int pid) {
+            ScheduledExecutorService s = scheduler;
+            if (s != null) s.execute(TunnelSupervisor.this::check);
+        }
+    };
+
+    // only touched on the scheduler thread
+    private int stalls;
+    private boolean reconnecting;
+    private int attempt;
+    private long downSince;
+    private String downReason;
+    private TunnelReconnectEvent event;
+
+    /**
+     * @param tunnel a started Tunnel; its start options are reused for every restart
+     */
+    public TunnelSupervisor(Tunnel tunnel) {
+        if (tunnel.startOptions == null) {
+            throw new IllegalArgumentException("Tunnel was not started");
+        }
+        this.tunnel = tunnel;
+        String port = tunnel.startOptions.get("infoAPIPort");
+        this.probeUrl = port != null ? "http://127.0.0.1:" + port.trim() + TunnelMetrics.INFO_PATH : null;
+    }
+
+    /**
+     * @param millis time between liveness checks and info API probes
+     */
+    public void setCheckInterval(long millis) {
+        this.checkInterval = millis;
+    }
+
+    /**
+     * @param millis time an info API probe may take before it counts as a stall
+     */
+    public void setStallTimeout(int millis) {
+        this.stallTimeout = millis;
+    }
+
+    /**
+     * @param maxStalls number of stalled probes in a row after which the tunnel is restarted
+     */
+    public void setMaxStalls(int maxStalls) {
+        this.maxStalls = Math.max(1, maxStalls);
+    }
+
+    /**
+     * @param millis delay before the second restart attempt; doubled for every further one
+     */
+    public void setInitialBackoff(long millis) {
+        this.initialBackoff = millis;
+    }
+
+    /**
+     * @param millis upper bound of the delay between restart attempts
+     */
+    public void setMaxBackoff(long millis) {
+        this.maxBackoff = millis;
+    }
+
+    public void addListener(TunnelSupervisorListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TunnelSupervisorListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the tunnel on a background thread.
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(TunnelExecutors.daemonThreads("lambdatest-tunnel-supervisor"));
+        tunnel.addExitListener(exitListener);
+        scheduler.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching; the tunnel itself is left as it is.
+     */
+    public synchronized void close() {
+        tunnel.removeExitListener(exitListener);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return number of times the tunnel was reconnected
+     */
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return downtime of the last outage, zero if there was none
+     */
+    public Duration getLastDowntime() {
+        return Duration.ofNanos(lastDowntime);
+    }
+
+    /**
+     * @return downtime of all outages so far
+     */
+    public Duration getTotalDowntime() {
+        return Duration.ofNanos(totalDowntime.get());
+    }
+
+    private void check() {
+        if (reconnecting || tunnel.stopRequested) return;
+        boolean running;
+        try {
+            running = tunnel.isRunning();
+        } catch (Exception e) {
+            running = false;
+        }
+        if (!running) {
+            disconnected("tunnel process exited");
+            return;
+        }
+        if (probeUrl == null) return;
+
+        if (probe()) {
+            stalls = 0;
+        } else if (++stalls >= maxStalls) {
+            disconnected("info API stalled " + stalls + " times in a row");
+        }
+    }
+
+    /**
+     * @return true if the info API answered within the stall timeout
+     */
+    private boolean probe() {
+        long started = System.nanoTime();
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(probeUrl).openConnection();
+            conn.setConnectTimeout(stallTimeout);
+            conn.setReadTimeout(stallTimeout);
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) return false;
+            InputStream in = conn.getInputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                    // drain, so the connection can be reused
+                }
+            } finally {
+                in.close();
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) <= stallTimeout;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (conn != null) conn.disconnect();
+        }
+    }
+
+    private void disconnected(String reason) {
+        reconnecting = true;
+        stalls = 0;
+        attempt = 0;
+        downSince = System.nanoTime();
+        downReason = reason;
+        event = new TunnelReconnectEvent();
+        event.begin();
+        for (TunnelSupervisorListener listener : listeners) {
+            listener.onDisconnect(tunnel, reason);
+        }
+        reconnect();
+    }
+
+    private void reconnect() {
+        if (tunnel.stopRequested) {
+            // stopped while waiting for the next attempt
+            reconnecting = false;
+            return;
+        }
+        attempt++;
+        try {
+            tunnel.restart();
+        } catch (Exception e) {
+            long delay = backoff(attempt);
+            for (TunnelSupervisorListener listener : listeners) {
+                listener.onReconnectFailed(tunnel, e, attempt, delay);
+            }
+            ScheduledExecutorService s = scheduler;
+            if (s != null) s.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        long downtime = System.nanoTime() - downSince;
+        lastDowntime = downtime;
+        totalDowntime.addAndGet(downtime);
+        reconnects.incrementAndGet();
+        event.end();
+        if (event.shouldCommit()) {
+            event.tunnelName = tunnel.startOptions.get("tunnelName");
+            event.reason = downReason;
+            event.attempts = attempt;
+            event.commit();
+        }
+        reconnecting = false;
+        for (TunnelSupervisorListener listener : listeners) {
+            listener.onReconnect(tunnel, Duration.ofNanos(downtime), attempt);
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random,
+     * so that many supervised tunnels do not retry in lockstep.
+     */
+    private long backoff(int attempt) {
+        long delay = initialBackoff << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxBackoff) delay = maxBackoff;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
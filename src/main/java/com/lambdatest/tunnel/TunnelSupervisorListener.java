@@ -0,0 +1,38 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+
+/**
+ * Receives the outages of a tunnel watched by a {@link TunnelSupervisor}. Called on the
+ * supervisor's thread.
+ */
+public interface TunnelSupervisorListener {
+
+    /**
+     * Called when the tunnel was found dead or stalled, before it is restarted.
+     *
+     * @param tunnel the supervised Tunnel instance
+     * @param reason why the tunnel is considered down
+     */
+    void onDisconnect(Tunnel tunnel, String reason);
+
+    /**
+     * Called once the tunnel is connected again.
+     *
+     * @param tunnel   the supervised Tunnel instance
+     * @param downtime time since the tunnel was found down
+     * @param attempts number of starts it took
+     */
+    void onReconnect(Tunnel tunnel, Duration downtime, int attempts);
+
+    /**
+     * Called when a restart failed and the next one is scheduled.
+     *
+     * @param tunnel     the supervised Tunnel instance
+     * @param error      why the start failed
+     * @param attempt    number of the failed attempt, starting at 1
+     * @param nextMillis delay before the next attempt
+     */
+    default void onReconnectFailed(Tunnel tunnel, Exception error, int attempt, long nextMillis) {
+    }
+}
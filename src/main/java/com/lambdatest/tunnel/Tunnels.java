@@ -0,0 +1,263 @@
+package com.lambdatest.tunnel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Every tunnel started in this JVM that has not been stopped yet. {@link #stopAll(Duration)} tears
+ * them all down at once, killing the tunnel processes that did not stop in time, and
+ * {@link #installShutdownHook(Duration)} does so when the JVM exits, so that daemons are not left
+ * running on the machine after a crashed or interrupted run.
+ * <p>
+ * The hook can also be installed by setting the {@code lambdatest.tunnel.shutdownHook} system
+ * property to the teardown timeout in milliseconds, or to {@code true} for the default of 30
+ * seconds.
+ */
+public final class Tunnels {
+
+    static final String HOOK_PROPERTY = "lambdatest.tunnel.shutdownHook";
+
+    private static final Duration DEFAULT_HOOK_TIMEOUT = Duration.ofSeconds(30);
+    private static final long KILL_GRACE_MILLIS = 2000;
+    private static final long KILL_POLL_MILLIS = 20;
+
+    private static final Set<Tunnel> RUNNING = ConcurrentHashMap.newKeySet();
+    private static Thread hook;
+    private static boolean hookPropertyRead;
+
+    private Tunnels() {
+    }
+
+    /**
+     * Outcome of stopping one tunnel.
+     */
+    public enum Outcome {
+        /** The binary confirmed the stop before the deadline. */
+        STOPPED,
+        /** The deadline passed and the tunnel process was killed. */
+        KILLED,
+        /** The stop failed before the deadline and the tunnel process was killed. */
+        FAILED,
+        /**
+         * The detach of a tunnel shared with other JVMs failed or did not finish in time. Only
+         * this JVM's reference was dropped; the tunnel process was left running for the others.
+         */
+        DETACHED
+    }
+
+    /**
+     * How one tunnel was torn down by {@link #stopAll(Duration)}.
+     */
+    public static final class Teardown {
+        private final Tunnel tunnel;
+        private final int pid;
+        private final Outcome outcome;
+        private final Duration duration;
+        private final Throwable error;
+
+        Teardown(Tunnel tunnel, int pid, Outcome outcome, Duration duration, Throwable error) {
+            this.tunnel = tunnel;
+            this.pid = pid;
+            this.outcome = outcome;
+            this.duration = duration;
+            this.error = error;
+        }
+
+        public Tunnel getTunnel() {
+            return tunnel;
+        }
+
+        /**
+         * @return pid of the tunnel process when the teardown began
+         */
+        public int getPid() {
+            return pid;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return time from the start of the teardown until the tunnel was stopped or killed
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return what the stop failed with, or null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            Map<String, String> options = tunnel.startOptions;
+            String name = options != null && options.get("tunnelName") != null ? options.get("tunnelName") : "tunnel";
+            return name + " (pid " + pid + "): " + outcome + " after " + duration.toMillis() + "ms"
+                    + (error != null ? ", " + error : "");
+        }
+    }
+
+    /**
+     * @return the tunnels started in this JVM and not stopped yet
+     */
+    public static List<Tunnel> running() {
+        return new ArrayList<Tunnel>(RUNNING);
+    }
+
+    /**
+     * Stops every running tunnel concurrently. Tunnels obtained with
+     * {@link Tunnel#startOrAttach(Map)} are detached instead, so tunnels shared with other JVMs
+     * keep running. Tunnel processes still alive when the timeout passes, or whose stop failed,
+     * are killed: terminated first, then forcibly after a short grace period. A shared tunnel is
+     * only killed if this JVM was its last holder.
+     *
+     * @param timeout time the binaries are given to stop their tunnels
+     * @return how each tunnel was torn down
+     */
+    public static List<Teardown> stopAll(Duration timeout) {
+        List<Tunnel> tunnels = running();
+        List<CompletableFuture<Tunnel>> stops = new ArrayList<CompletableFuture<Tunnel>>(tunnels.size());
+        int[] pids = new int[tunnels.size()];
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < tunnels.size(); i++) {
+            final Tunnel tunnel = tunnels.get(i);
+            pids[i] = tunnel.pid;
+            stops.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    tunnel.release();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+                return tunnel;
+            }, TunnelExecutors.tasks()));
+        }
+
+        long deadline = startedAt + timeout.toNanos();
+        final Outcome[] outcomes = new Outcome[tunnels.size()];
+        final Throwable[] errors = new Throwable[tunnels.size()];
+        final long[] durations = new long[tunnels.size()];
+        List<CompletableFuture<Void>> kills = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < tunnels.size(); i++) {
+            outcomes[i] = Outcome.STOPPED;
+            try {
+                stops.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                outcomes[i] = Outcome.KILLED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcomes[i] = Outcome.KILLED;
+            } catch (Exception e) {
+                outcomes[i] = Outcome.FAILED;
+                errors[i] = e.getCause() != null ? e.getCause() : e;
+            }
+            if (outcomes[i] == Outcome.STOPPED) {
+                durations[i] = System.nanoTime() - startedAt;
+                continue;
+            }
+            if (!tunnels.get(i).abandon()) {
+                outcomes[i] = Outcome.DETACHED;
+                durations[i] = System.nanoTime() - startedAt;
+                continue;
+            }
+            // kill concurrently too, each may take the whole grace period
+            final int index = i;
+            final int pid = pids[i];
+            kills.add(CompletableFuture.runAsync(() -> {
+                kill(pid);
+                durations[index] = System.nanoTime() - startedAt;
+            }, TunnelExecutors.tasks()));
+        }
+        CompletableFuture.allOf(kills.toArray(new CompletableFuture<?>[0])).join();
+
+        List<Teardown> teardowns = new ArrayList<Teardown>(tunnels.size());
+        for (int i = 0; i < tunnels.size(); i++) {
+            teardowns.add(new Teardown(tunnels.get(i), pids[i], outcomes[i], Duration.ofNanos(durations[i]), errors[i]));
+        }
+        return teardowns;
+    }
+
+    /**
+     * Calls {@link #stopAll(Duration)} when the JVM shuts down. Installing it again only changes
+     * the timeout.
+     *
+     * @param timeout time the binaries are given to stop their tunnels
+     */
+    public static synchronized void installShutdownHook(final Duration timeout) {
+        removeShutdownHook();
+        hook = new Thread(() -> stopAll(timeout), "lambdatest-tunnel-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    public static synchronized void removeShutdownHook() {
+        if (hook == null) return;
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // already shutting down, the hook runs anyway
+        }
+        hook = null;
+    }
+
+    static void register(Tunnel tunnel) {
+        RUNNING.add(tunnel);
+        installHookFromProperty();
+    }
+
+    static void unregister(Tunnel tunnel) {
+        RUNNING.remove(tunnel);
+    }
+
+    private static synchronized void installHookFromProperty() {
+        if (hookPropertyRead) return;
+        hookPropertyRead = true;
+        String value = System.getProperty(HOOK_PROPERTY);
+        if (value == null || value.trim().isEmpty() || value.trim().equalsIgnoreCase("false") || hook != null) {
+            return;
+        }
+        installShutdownHook(value.trim().equalsIgnoreCase("true")
+                ? DEFAULT_HOOK_TIMEOUT : Duration.ofMillis(Long.parseLong(value.trim())));
+    }
+
+    /**
+     * Terminates the process with the given pid and its children, forcibly if they outlive the
+     * grace period.
+     */
+    static void kill(int pid) {
+        if (pid == 0) return;
+        Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+        if (!handle.isPresent()) return;
+        List<ProcessHandle> processes = new ArrayList<ProcessHandle>();
+        handle.get().descendants().forEach(processes::add);
+        processes.add(handle.get());
+        for (ProcessHandle process : processes) {
+            process.destroy();
+        }
+        // polled rather than awaited with onExit, which only notices the exit of processes that
+        // are not our children with a delay of up to seconds
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KILL_GRACE_MILLIS);
+        for (ProcessHandle process : processes) {
+            while (process.isAlive() && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(KILL_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (process.isAlive()) process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.lambdatest.tunnel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads behind {@link TunnelExecutors} on Java 21 and later. Every pump, wait and process
+ * watcher gets its own virtual thread, so hundreds of tunnels cost no more than a handful of
+ * carrier threads.
+ */
+final class IoThreads {
+
+    static final String MAX_THREADS_PROPERTY = "lambdatest.tunnel.ioThreads";
+
+    /** How often a watched process is checked; the JDK's own onExit pins a platform thread per pid. */
+    private static final long EXIT_POLL_MILLIS = 500;
+
+    private static final ExecutorService VIRTUAL =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("lambdatest-tunnel-io-", 0).factory());
+
+    private IoThreads() {
+    }
+
+    static ExecutorService newExecutor() {
+        return VIRTUAL;
+    }
+
+    static ExecutorService newTaskExecutor() {
+        return VIRTUAL;
+    }
+
+    /**
+     * @return future completed when the process exits, within {@value #EXIT_POLL_MILLIS}ms
+     */
+    static CompletableFuture<?> onExit(ProcessHandle process) {
+        CompletableFuture<ProcessHandle> exit = new CompletableFuture<>();
+        VIRTUAL.execute(() -> {
+            try {
+                while (process.isAlive()) {
+                    Thread.sleep(EXIT_POLL_MILLIS);
+                }
+                exit.complete(process);
+            } catch (InterruptedException e) {
+                exit.completeExceptionally(e);
+            }
+        });
+        return exit;
+    }
+}
@@ -0,0 +1,128 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryDownloaderTest {
+    private BinaryServer server;
+    private File target;
+    private final List<Long> progress = new ArrayList<Long>();
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] payload = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < payload.length; i++) payload[i] = (byte) (i * 31);
+        server = new BinaryServer(payload);
+        target = File.createTempFile("lt-download", ".part");
+        target.delete();
+    }
+
+    private BinaryDownloader downloader() {
+        return new BinaryDownloader(2000, 2000, 3, new BinaryDownloader.ProgressListener() {
+            public void onProgress(long bytesRead, long totalBytes, double bytesPerSecond) {
+                assertEquals(server.zip.length, totalBytes);
+                assertTrue(bytesPerSecond >= 0);
+                progress.add(bytesRead);
+            }
+        });
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        BinaryDownloader.Result result = downloader().download(server.baseUrl() + "LT.zip", target, null, null);
+        assertFalse(result.notModified);
+        assertEquals("\"v1\"", result.etag);
+        assertTrue(Arrays.equals(server.zip, Files.readAllBytes(target.toPath())));
+        assertEquals(Long.valueOf(server.zip.length), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void testResumesDroppedConnection() throws Exception {
+        server.cutAfter = server.zip.length / 2;
+        BinaryDownloader.Result result = downloader().download(server.baseUrl() + "LT.zip", target, null, null);
+        assertEquals(server.zip.length, result.bytes);
+        assertEquals(2, server.downloads.get());
+        assertEquals(1, server.ranges.get());
+        assertTrue(Arrays.equals(server.zip, Files.readAllBytes(target.toPath())));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        BinaryDownloader.Result result = downloader().download(server.baseUrl() + "LT.zip", target, "\"v1\"", null);
+        assertTrue(result.notModified);
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void testExtractsEntryFromStream() throws Exception {
+        String script = BinaryServer.script(BinaryServer.VERSION);
+        server.zip = BinaryServer.zipOf(script);
+        BinaryDownloader.Result result = downloader().extract(server.baseUrl() + "LT.zip", "LT", target, null, null);
+        assertEquals(script, new String(Files.readAllBytes(target.toPath()), "UTF-8"));
+        assertEquals(BinaryManifest.sha256(target), result.sha256);
+        assertEquals(script.length(), result.bytes);
+    }
+
+    @Test
+    public void testExtractRestartsDroppedConnection() throws Exception {
+        server.zip = BinaryServer.zipOf(BinaryServer.script(BinaryServer.VERSION));
+        server.cutAfter = server.zip.length / 2;
+        BinaryDownloader.Result result = downloader().extract(server.baseUrl() + "LT.zip", "LT", target, null, null);
+        assertEquals(2, server.downloads.get());
+        assertEquals(BinaryManifest.sha256(target), result.sha256);
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        server.close();
+        try {
+            new BinaryDownloader(500, 500, 2, null).download(server.baseUrl() + "LT.zip", target, null, null);
+            fail("expected download to fail");
+        } catch (java.io.IOException expected) {
+        }
+    }
+
+    @Test
+    public void testFailsFastOnClientError() throws Exception {
+        server.failWith = 404;
+        try {
+            downloader().download(server.baseUrl() + "LT.zip", target, null, null);
+            fail("expected download to fail");
+        } catch (BinaryDownloader.HttpStatusException expected) {
+            assertEquals(404, expected.status);
+        }
+        try {
+            downloader().extract(server.baseUrl() + "LT.zip", "LT", target, null, null);
+            fail("expected extract to fail");
+        } catch (BinaryDownloader.HttpStatusException expected) {
+        }
+        assertEquals(2, server.downloads.get());
+    }
+
+    @Test
+    public void testRetriesServerError() throws Exception {
+        server.failWith = 503;
+        try {
+            downloader().download(server.baseUrl() + "LT.zip", target, null, null);
+            fail("expected download to fail");
+        } catch (BinaryDownloader.HttpStatusException expected) {
+            assertEquals(503, expected.status);
+        }
+        assertEquals(3, server.downloads.get());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        target.delete();
+    }
+}
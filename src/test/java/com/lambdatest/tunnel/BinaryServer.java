@@ -0,0 +1,120 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Local stand-in for downloads.lambdatest.com. Serves the same zip for every platform path, with
+ * an ETag so conditional requests can be exercised.
+ */
+class BinaryServer implements Closeable {
+
+    static final String VERSION = "3.0.10-build1";
+
+    private final HttpServer server;
+    final AtomicInteger downloads = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+    final AtomicInteger ranges = new AtomicInteger();
+    volatile byte[] zip;
+    volatile String etag = "\"v1\"";
+    /**
+     * If non-negative, the next full response is cut off after this many bytes.
+     */
+    volatile int cutAfter = -1;
+    /**
+     * If non-zero, every request is answered with this status and no body.
+     */
+    volatile int failWith = 0;
+
+    BinaryServer() throws IOException {
+        this(zipOf(script(VERSION)));
+    }
+
+    BinaryServer(byte[] zip) throws IOException {
+        this.zip = zip;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    void serve(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(ifNoneMatch)) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        downloads.incrementAndGet();
+        if (failWith != 0) {
+            exchange.sendResponseHeaders(failWith, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = zip;
+        int from = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag))) {
+            from = Integer.parseInt(range.substring(6, range.indexOf('-')));
+            ranges.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + from + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, body.length - from);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+        }
+
+        OutputStream out = exchange.getResponseBody();
+        int cut = cutAfter;
+        if (cut >= 0 && from == 0) {
+            cutAfter = -1;
+            out.write(body, 0, cut);
+            out.flush();
+            // Closing a fixed length response early drops the connection.
+            exchange.close();
+            return;
+        }
+        out.write(body, from, body.length - from);
+        out.close();
+    }
+
+    public void close() {
+        server.stop(0);
+    }
+
+    /**
+     * @return a shell script standing in for the LT binary that reports the given version
+     */
+    static String script(String version) {
+        return "#!/bin/sh\n"
+                + "if [ \"$1\" = \"--version\" ]; then echo x >> \"$0.versions\"; echo \"" + version + "\"; exit 0; fi\n"
+                + "echo '{\"state\":\"connected\",\"pid\":'$$'}'\n";
+    }
+
+    static byte[] zipOf(String script) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("LT"));
+        zip.write(script.getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+}
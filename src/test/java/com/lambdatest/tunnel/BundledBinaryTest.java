@@ -0,0 +1,97 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class BundledBinaryTest {
+
+    private static final String[] PLATFORM_ZIPS = {
+            "linux/64bit/LT_Linux.zip", "linux/32bit/LT_Linux.zip",
+            "mac/64bit/LT_Mac.zip", "mac/32bit/LT_Mac.zip"
+    };
+
+    private BinaryServer server;
+    private File dir;
+    private File classpath;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(StubBinary.isWindows());
+        TunnelBinary.clearValidationCache();
+        server = new BinaryServer();
+        dir = Files.createTempDirectory("lt-binary").toFile();
+        classpath = Files.createTempDirectory("lt-bundle").toFile();
+    }
+
+    /**
+     * Lays the zip out on a classpath directory the way the bundle-binaries profile packages it.
+     */
+    private BundledBinary bundle(byte[] zip, String checksum) throws Exception {
+        for (String path : PLATFORM_ZIPS) {
+            File file = new File(classpath, BundledBinary.RESOURCE_ROOT + path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), zip);
+            Files.write(new File(file.getPath() + BundledBinary.CHECKSUM_SUFFIX).toPath(),
+                    (checksum + "\n").getBytes("US-ASCII"));
+        }
+        return new BundledBinary(new URLClassLoader(new URL[]{classpath.toURI().toURL()}, null));
+    }
+
+    private static String sha256(byte[] bytes) {
+        return BinaryManifest.toHex(BinaryManifest.newDigest().digest(bytes));
+    }
+
+    private TunnelBinary binary(long ttl, BundledBinary bundle) throws Exception {
+        return new TunnelBinary(server.baseUrl(), new String[]{dir.getPath()}, ttl, new BinaryDownloader(),
+                new PhaseRecorder(), bundle);
+    }
+
+    @Test
+    public void testInstallsFromClasspathWithoutNetwork() throws Exception {
+        byte[] zip = BinaryServer.zipOf(BinaryServer.script("3.0.19-build7"));
+        TunnelBinary binary = binary(60000, bundle(zip, sha256(zip)));
+
+        assertEquals("3.0.19-build7", binary.getVersion());
+        assertTrue(new File(binary.getBinaryPath()).canExecute());
+        assertEquals(0, server.downloads.get());
+        assertEquals(sha256(zip), BinaryManifest.load(new File(binary.getBinaryPath())).bundle);
+    }
+
+    @Test
+    public void testStaleBundledBinaryIsKeptWithoutNetwork() throws Exception {
+        byte[] zip = BinaryServer.zipOf(BinaryServer.script("3.0.19-build7"));
+        BundledBinary bundle = bundle(zip, sha256(zip));
+        binary(0, bundle);
+        TunnelBinary again = binary(0, bundle);
+
+        assertEquals("3.0.19-build7", again.getVersion());
+        assertEquals(0, server.downloads.get());
+        assertEquals(0, server.notModified.get());
+    }
+
+    @Test
+    public void testChecksumMismatchFallsBackToNetwork() throws Exception {
+        byte[] zip = BinaryServer.zipOf(BinaryServer.script("3.0.19-build7"));
+        TunnelBinary binary = binary(60000, bundle(zip, sha256(new byte[]{1})));
+
+        assertEquals(BinaryServer.VERSION, binary.getVersion());
+        assertEquals(1, server.downloads.get());
+        assertNull(BinaryManifest.load(new File(binary.getBinaryPath())).bundle);
+    }
+
+    @Test
+    public void testNothingBundled() throws Exception {
+        BundledBinary empty = new BundledBinary(new URLClassLoader(new URL[]{classpath.toURI().toURL()}, null));
+        assertNull(empty.checksum("linux/64bit/LT_Linux.zip"));
+        binary(60000, empty);
+        assertEquals(1, server.downloads.get());
+    }
+}
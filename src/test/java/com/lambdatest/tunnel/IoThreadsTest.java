@@ -0,0 +1,105 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+public class IoThreadsTest {
+
+    /**
+     * Fills the stderr pipe before it writes to stdout, so it only finishes if both pipes are
+     * drained at the same time.
+     */
+    private static final List<String> FILLS_STDERR = Arrays.asList("/bin/sh", "-c",
+            "head -c 262144 /dev/zero | tr '\\0' x >&2; echo done");
+
+    @Test
+    public void testPumpsMoreProcessesThanThreads() throws Exception {
+        assumeFalse(StubBinary.isWindows());
+        // a JVM of its own, as the pool size is read once
+        String classPath = location(IoThreadsTest.class) + File.pathSeparator + location(IoThreads.class)
+                + File.pathSeparator + location(org.json.JSONObject.class);
+        Process jvm = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-D" + IoThreads.MAX_THREADS_PROPERTY + "=2", "-cp", classPath, IoThreadsTest.class.getName(), "8")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (!jvm.waitFor(60, TimeUnit.SECONDS)) {
+            jvm.destroyForcibly();
+            fail("collecting the output of 8 processes on 2 I/O threads deadlocked");
+        }
+        assertEquals(0, jvm.exitValue());
+    }
+
+    private static String location(Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    /**
+     * Collects the output of as many processes at once as given.
+     */
+    public static void main(String[] args) throws Exception {
+        int processes = Integer.parseInt(args[0]);
+        ExecutorService callers = Executors.newFixedThreadPool(processes);
+        List<Future<ProcessOutput>> outputs = new ArrayList<Future<ProcessOutput>>();
+        for (int i = 0; i < processes; i++) {
+            outputs.add(callers.submit(() -> ProcessOutput.collect(new Tunnel().runCommand(FILLS_STDERR), 0)));
+        }
+        for (Future<ProcessOutput> output : outputs) {
+            if (!output.get().stdout.equals("done")) System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    @Test
+    public void testJava21LayerRunsOnVirtualThreads() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21);
+        // tests run from target/classes, where the multi-release layer is never picked
+        URL layer = IoThreadsTest.class.getResource("/META-INF/versions/21/com/lambdatest/tunnel/IoThreads.class");
+        assumeNotNull(layer);
+        final byte[] bytes;
+        try (InputStream in = layer.openStream()) {
+            bytes = in.readAllBytes();
+        }
+        ClassLoader loader = new ClassLoader(IoThreadsTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!name.equals(IoThreads.class.getName())) return super.loadClass(name, resolve);
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> loaded = findLoadedClass(name);
+                    return loaded != null ? loaded : defineClass(name, bytes, 0, bytes.length);
+                }
+            }
+        };
+        Class<?> java21 = loader.loadClass(IoThreads.class.getName());
+
+        Method newExecutor = java21.getDeclaredMethod("newExecutor");
+        newExecutor.setAccessible(true);
+        ExecutorService executor = (ExecutorService) newExecutor.invoke(null);
+        final Method isVirtual = Thread.class.getMethod("isVirtual");
+        assertEquals(Boolean.TRUE, executor.submit(() -> isVirtual.invoke(Thread.currentThread())).get(5, TimeUnit.SECONDS));
+
+        Method onExit = java21.getDeclaredMethod("onExit", ProcessHandle.class);
+        onExit.setAccessible(true);
+        Process process = new ProcessBuilder("sleep", "0.2").start();
+        CompletableFuture<?> exit = (CompletableFuture<?>) onExit.invoke(null, process.toHandle());
+        exit.get(5, TimeUnit.SECONDS);
+        assertFalse(process.isAlive());
+    }
+}
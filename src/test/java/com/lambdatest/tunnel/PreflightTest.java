@@ -0,0 +1,134 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class PreflightTest {
+
+    private ServerSocket app;
+    private File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(StubBinary.isWindows());
+        app = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        binary = StubBinary.write(StubBinary.CONNECTS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (app != null) app.close();
+    }
+
+    private static int closedPort() throws Exception {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private TunnelOptions.Builder options() {
+        return TunnelOptions.builder().key("stub-key").binaryPath(binary.getPath());
+    }
+
+    @Test
+    public void testPassesWhenTargetsAreUp() throws Exception {
+        Tunnel t = new Tunnel();
+        t.start(options()
+                .preflight("127.0.0.1:" + app.getLocalPort())
+                .option("localDomains", "localhost")
+                .proxyHost("127.0.0.1")
+                .proxyPort(app.getLocalPort())
+                .port(closedPort())
+                .build());
+        assertTrue(t.pid != 0);
+        assertNotNull(t.getStartupReport().getDuration(StartupPhase.PREFLIGHT));
+    }
+
+    @Test
+    public void testFailsBeforeLaunchingWithEveryFailure() throws Exception {
+        int down = closedPort();
+        final boolean[] launched = {false};
+        Tunnel t = new Tunnel() {
+            @Override
+            protected TunnelProcess runCommand(List<String> command) throws IOException {
+                launched[0] = true;
+                return super.runCommand(command);
+            }
+        };
+        try {
+            t.start(options()
+                    .preflight("127.0.0.1:" + down, "127.0.0.1:" + app.getLocalPort())
+                    .option("localDomains", "no-such-host.invalid")
+                    .port(app.getLocalPort())
+                    .build());
+            fail();
+        } catch (TunnelException e) {
+            String message = e.getMessage();
+            assertTrue(message, message.contains("target 127.0.0.1:" + down + ": "));
+            assertFalse(message, message.contains("target 127.0.0.1:" + app.getLocalPort()));
+            assertTrue(message, message.contains("local domain no-such-host.invalid: does not resolve"));
+            assertTrue(message, message.contains("tunnel port " + app.getLocalPort() + ": already in use"));
+        }
+        assertFalse(launched[0]);
+    }
+
+    @Test
+    public void testGivesUpAtDeadline() throws Exception {
+        // once the accept backlog is full, further connects go unanswered
+        ServerSocket full = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        List<Socket> backlog = new ArrayList<Socket>();
+        try {
+            boolean filled = false;
+            for (int i = 0; i < 64 && !filled; i++) {
+                Socket socket = new Socket();
+                backlog.add(socket);
+                try {
+                    socket.connect(full.getLocalSocketAddress(), 200);
+                } catch (SocketTimeoutException e) {
+                    filled = true;
+                }
+            }
+            assumeTrue(filled);
+            Map<String, String> options = options()
+                    .preflight("127.0.0.1:" + full.getLocalPort(), "127.0.0.1:" + app.getLocalPort())
+                    .preflightTimeout(300)
+                    .build()
+                    .asMap();
+            long started = System.nanoTime();
+            try {
+                new Tunnel().start(options);
+                fail();
+            } catch (TunnelException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("target 127.0.0.1:" + full.getLocalPort() + ": no answer"));
+                assertFalse(e.getMessage(), e.getMessage().contains("target 127.0.0.1:" + app.getLocalPort()));
+            }
+            assertTrue((System.nanoTime() - started) / 1000000 < 2000);
+        } finally {
+            for (Socket socket : backlog) socket.close();
+            full.close();
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        assertNull(Preflight.start(options().option("localDomains", "no-such-host.invalid").build()));
+        assertNull(Preflight.start(options().option(Preflight.OPTION, "false").build()));
+        assertFalse(options().preflight().build().command("/opt/LT", "start").contains("-preflight"));
+    }
+}
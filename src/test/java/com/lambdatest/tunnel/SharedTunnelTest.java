@@ -0,0 +1,63 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class SharedTunnelTest {
+
+    @Before
+    public void setUp() {
+        assumeFalse(StubBinary.isWindows());
+    }
+
+    private static TunnelOptions options(String script) throws Exception {
+        return TunnelOptions.of(StubBinary.options(StubBinary.write(script)));
+    }
+
+    @Test
+    public void testStartsOnceAndStopsOnce() throws Exception {
+        Tunnel tunnel = new Tunnel();
+        SharedTunnel shared = new SharedTunnel(options(StubBinary.DAEMON), tunnel);
+
+        CompletableFuture<Tunnel> started = shared.start();
+        assertSame(started, shared.start());
+        assertSame(tunnel, shared.await());
+        assertTrue(tunnel.isRunning());
+        int pid = tunnel.pid;
+
+        shared.stop();
+        assertFalse(tunnel.isRunning());
+        ProcessHandle.of(pid).ifPresent(h -> h.onExit().join());
+        shared.stop();
+        try {
+            shared.start();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testEveryCallerGetsTheFailure() throws Exception {
+        String fails = "#!/bin/sh\necho '{\"state\":\"error\",\"message\":\"bad key\"}'\n";
+        SharedTunnel shared = new SharedTunnel(options(fails), new Tunnel());
+        for (int i = 0; i < 2; i++) {
+            try {
+                shared.await();
+                fail();
+            } catch (TunnelException e) {
+                assertEquals("bad key", e.getMessage());
+            }
+        }
+        shared.stop();
+    }
+
+    @Test
+    public void testStopWithoutStartDoesNothing() throws Exception {
+        new SharedTunnel(options(StubBinary.DAEMON), new Tunnel()).stop();
+    }
+}
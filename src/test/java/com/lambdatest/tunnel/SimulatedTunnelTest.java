@@ -0,0 +1,80 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedTunnelTest {
+
+    private static Map<String, String> options() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "simulated");
+        return options;
+    }
+
+    @Test
+    public void testConnectsAfterLatency() throws Exception {
+        SimulatedTunnel t = new SimulatedTunnel();
+        t.setConnectLatency(100);
+        long started = System.nanoTime();
+        t.start(options());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 100);
+        assertTrue(t.isRunning());
+        t.stop();
+        assertFalse(t.isRunning());
+    }
+
+    @Test
+    public void testFailureRate() throws Exception {
+        SimulatedTunnel t = new SimulatedTunnel();
+        t.setFailureRate(1.0);
+        try {
+            t.start(options());
+            fail("expected simulated failure");
+        } catch (TunnelException e) {
+            assertEquals("Simulated tunnel failed to connect", e.getMessage());
+        }
+        assertFalse(t.isRunning());
+    }
+
+    @Test
+    public void testCrashNotifiesExitListener() throws Exception {
+        final CountDownLatch crashed = new CountDownLatch(1);
+        SimulatedTunnel t = new SimulatedTunnel();
+        t.setCrashAfter(50);
+        t.addExitListener(new TunnelExitListener() {
+            public void onExit(Tunnel tunnel, int pid) {
+                crashed.countDown();
+            }
+        });
+        t.start(options());
+        assertTrue(crashed.await(5, TimeUnit.SECONDS));
+        assertFalse(t.isRunning());
+    }
+
+    @Test
+    public void testManyConcurrentStarts() throws Exception {
+        List<SimulatedTunnel> tunnels = new ArrayList<SimulatedTunnel>();
+        List<CompletableFuture<Tunnel>> starts = new ArrayList<CompletableFuture<Tunnel>>();
+        for (int i = 0; i < 200; i++) {
+            SimulatedTunnel t = new SimulatedTunnel();
+            t.setConnectLatency(50);
+            t.setConnectJitter(50);
+            tunnels.add(t);
+            starts.add(t.startAsync(options()));
+        }
+        CompletableFuture.allOf(starts.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        for (SimulatedTunnel t : tunnels) {
+            assertTrue(t.isRunning());
+            t.stop();
+        }
+    }
+}
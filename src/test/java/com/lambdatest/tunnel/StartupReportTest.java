@@ -0,0 +1,114 @@
+package com.lambdatest.tunnel;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class StartupReportTest {
+
+    @Before
+    public void setUp() {
+        assumeFalse(StubBinary.isWindows());
+    }
+
+    @Test
+    public void testTunnelReportsSpawnAndConnect() throws Exception {
+        final List<StartupPhase> seen = new ArrayList<StartupPhase>();
+        final StartupReport[] started = new StartupReport[1];
+        Tunnel t = new Tunnel();
+        t.addLifecycleListener(new TunnelLifecycleListener() {
+            public void onPhase(Tunnel tunnel, StartupPhase phase, Duration duration) {
+                seen.add(phase);
+            }
+
+            public void onStarted(Tunnel tunnel, StartupReport report) {
+                started[0] = report;
+            }
+        });
+        assertNull(t.getStartupReport());
+
+        t.start(StubBinary.options(StubBinary.write(StubBinary.CONNECTS)));
+        StartupReport report = t.getStartupReport();
+        assertSame(report, started[0]);
+        assertEquals(java.util.Arrays.asList(StartupPhase.SPAWN, StartupPhase.CONNECT), seen);
+        assertTrue(report.getDuration(StartupPhase.CONNECT).compareTo(Duration.ZERO) > 0);
+        assertEquals(Duration.ZERO, report.getDuration(StartupPhase.DOWNLOAD));
+        assertTrue(report.getTotal().compareTo(report.getDuration(StartupPhase.CONNECT)) >= 0);
+    }
+
+    @Test
+    public void testDownloadProgressReachesLifecycleListeners() throws Exception {
+        BinaryServer server = new BinaryServer();
+        File target = File.createTempFile("lt-download", ".part");
+        final List<Long> progress = new ArrayList<Long>();
+        TunnelLifecycleListener listener = new TunnelLifecycleListener() {
+            public void onPhase(Tunnel tunnel, StartupPhase phase, Duration duration) {
+            }
+
+            public void onDownloadProgress(Tunnel tunnel, long bytesRead, long totalBytes, double bytesPerSecond) {
+                progress.add(bytesRead);
+            }
+        };
+        PhaseRecorder phases = new PhaseRecorder(new Tunnel(), "progress-test",
+                java.util.Collections.singletonList(listener));
+        try {
+            new BinaryDownloader(2000, 2000, 1, phases).download(server.baseUrl() + "LT.zip", target, null, null);
+        } finally {
+            server.close();
+            target.delete();
+        }
+        assertFalse(progress.isEmpty());
+        assertEquals(Long.valueOf(server.zip.length), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void testBinaryPhasesAreRecordedAsFlightRecorderEvents() throws Exception {
+        BinaryServer server = new BinaryServer();
+        File dir = File.createTempFile("lt-binary", "");
+        dir.delete();
+        dir.mkdirs();
+        TunnelBinary.clearValidationCache();
+
+        Recording recording = new Recording();
+        recording.enable("com.lambdatest.tunnel.StartupPhase").withThreshold(Duration.ZERO);
+        recording.start();
+        PhaseRecorder phases = new PhaseRecorder(null, "jfr-test", java.util.Collections.<TunnelLifecycleListener>emptyList());
+        try {
+            new TunnelBinary(server.baseUrl(), new String[]{dir.getPath()}, 60000, new BinaryDownloader(), phases);
+        } finally {
+            recording.stop();
+            server.close();
+        }
+
+        Map<StartupPhase, Duration> recorded = phases.report(0).getPhases();
+        assertTrue(recorded.containsKey(StartupPhase.RESOLVE_DIRECTORY));
+        assertTrue(recorded.containsKey(StartupPhase.BINARY_LOCK));
+        assertTrue(recorded.containsKey(StartupPhase.DOWNLOAD));
+        assertTrue(recorded.containsKey(StartupPhase.VALIDATE));
+        assertFalse(recorded.containsKey(StartupPhase.UNZIP));
+
+        Path dump = File.createTempFile("lt-phases", ".jfr").toPath();
+        recording.dump(dump);
+        recording.close();
+        List<String> events = new ArrayList<String>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            assertEquals("jfr-test", event.getString("tunnelName"));
+            events.add(event.getString("phase"));
+        }
+        assertTrue(events.contains("DOWNLOAD"));
+        assertTrue(events.contains("VALIDATE"));
+        dump.toFile().delete();
+    }
+}
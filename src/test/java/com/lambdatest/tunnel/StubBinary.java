@@ -0,0 +1,58 @@
+package com.lambdatest.tunnel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shell scripts standing in for the LT binary, so Tunnel can be driven without an account or
+ * network. Only usable where /bin/sh exists.
+ */
+final class StubBinary {
+
+    /**
+     * Answers a start by printing the connected JSON with its own pid, and a stop silently.
+     */
+    static final String CONNECTS = "#!/bin/sh\n"
+            + "case \"$*\" in *'-d start'*) echo '{\"state\":\"connected\",\"pid\":'$$'}';; esac\n";
+
+    /**
+     * Behaves like the daemonising binary: a start leaves a background process running per
+     * tunnelName and prints its pid, a stop of the same tunnelName kills it.
+     */
+    static final String DAEMON = "#!/bin/sh\n"
+            + "op=''; name=default\n"
+            + "while [ $# -gt 0 ]; do case \"$1\" in -d) op=\"$2\"; shift;; -tunnelName) name=\"$2\"; shift;; esac; shift; done\n"
+            + "pidfile=\"$0.$name.pid\"\n"
+            + "if [ \"$op\" = start ]; then\n"
+            + "  sleep 60 >/dev/null 2>&1 </dev/null &\n"
+            + "  echo $! > \"$pidfile\"\n"
+            + "  echo '{\"state\":\"connected\",\"pid\":'$!'}'\n"
+            + "elif [ \"$op\" = stop ] && [ -f \"$pidfile\" ]; then\n"
+            + "  kill $(cat \"$pidfile\") 2>/dev/null; rm -f \"$pidfile\"\n"
+            + "fi\n";
+
+    private StubBinary() {
+    }
+
+    static File write(String script) throws IOException {
+        File file = File.createTempFile("LT-stub", ".sh");
+        file.deleteOnExit();
+        Files.write(file.toPath(), script.getBytes("UTF-8"));
+        file.setExecutable(true);
+        return file;
+    }
+
+    static Map<String, String> options(File binary) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "stub-key");
+        options.put("binarypath", binary.getPath());
+        return options;
+    }
+
+    static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("windows");
+    }
+}
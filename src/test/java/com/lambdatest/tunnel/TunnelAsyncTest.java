@@ -0,0 +1,79 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelAsyncTest {
+
+    @Before
+    public void setUp() {
+        assumeFalse(StubBinary.isWindows());
+    }
+
+    @Test
+    public void testStartAsync() throws Exception {
+        Tunnel t = new Tunnel();
+        CompletableFuture<Tunnel> started = t.startAsync(StubBinary.options(StubBinary.write(StubBinary.CONNECTS)));
+        assertSame(t, started.get(10, TimeUnit.SECONDS));
+        assertTrue(t.pid > 0);
+
+        assertSame(t, t.stopAsync().get(10, TimeUnit.SECONDS));
+        assertEquals(0, t.pid);
+    }
+
+    @Test
+    public void testStartAsyncOnCallerExecutor() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            Tunnel t = new Tunnel();
+            t.startAsync(StubBinary.options(StubBinary.write(StubBinary.CONNECTS)), single).get(10, TimeUnit.SECONDS);
+            assertTrue(t.pid > 0);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testStderrFloodDoesNotDeadlock() throws Exception {
+        String script = "#!/bin/sh\n"
+                + "head -c 1000000 /dev/zero | tr '\\0' 'x' >&2\n"
+                + "echo '{\"state\":\"connected\",\"pid\":'$$'}'\n";
+        Tunnel t = new Tunnel();
+        t.setTimeout(10000);
+        t.start(StubBinary.options(StubBinary.write(script)));
+        assertTrue(t.pid > 0);
+    }
+
+    @Test
+    public void testStartTimesOut() throws Exception {
+        Tunnel t = new Tunnel();
+        t.setTimeout(300);
+        try {
+            t.startAsync(StubBinary.options(StubBinary.write("#!/bin/sh\nexec sleep 30\n"))).get(10, TimeUnit.SECONDS);
+            fail("expected timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TunnelException);
+        }
+        assertEquals(0, t.pid);
+    }
+
+    @Test
+    public void testCancelKillsLaunch() throws Exception {
+        Tunnel t = new Tunnel();
+        CompletableFuture<Tunnel> started = t.startAsync(
+                StubBinary.options(StubBinary.write("#!/bin/sh\nexec sleep 30\n")));
+        Thread.sleep(200);
+        assertTrue(started.cancel(true));
+        assertTrue(started.isCancelled());
+        assertEquals(0, t.pid);
+    }
+}
@@ -0,0 +1,148 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelBinaryTest {
+    private BinaryServer server;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("windows"));
+        TunnelBinary.clearValidationCache();
+        server = new BinaryServer();
+        dir = File.createTempFile("lt-binary", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    private TunnelBinary binary(long ttl) throws Exception {
+        return new TunnelBinary(server.baseUrl(), new String[]{dir.getPath()}, ttl);
+    }
+
+    @Test
+    public void testDownloadsOnceWhileFresh() throws Exception {
+        TunnelBinary first = binary(60000);
+        assertTrue(new File(first.getBinaryPath()).canExecute());
+        assertEquals(1, server.downloads.get());
+
+        binary(60000);
+        binary(60000);
+        assertEquals(1, server.downloads.get());
+        assertEquals(0, server.notModified.get());
+
+        BinaryManifest manifest = BinaryManifest.load(new File(first.getBinaryPath()));
+        assertEquals(BinaryServer.VERSION, manifest.version);
+        assertEquals("\"v1\"", manifest.etag);
+    }
+
+    @Test
+    public void testRevalidatesWhenStale() throws Exception {
+        binary(0);
+        binary(0);
+        assertEquals(1, server.downloads.get());
+        assertEquals(1, server.notModified.get());
+
+        server.etag = "\"v2\"";
+        server.zip = BinaryServer.zipOf(BinaryServer.script("3.0.11-build2"));
+        TunnelBinary updated = binary(0);
+        assertEquals(2, server.downloads.get());
+        assertEquals("3.0.11-build2", BinaryManifest.load(new File(updated.getBinaryPath())).version);
+    }
+
+    @Test
+    public void testRedownloadsTamperedBinary() throws Exception {
+        TunnelBinary first = binary(60000);
+        FileWriter writer = new FileWriter(first.getBinaryPath(), true);
+        writer.write("# tampered\n");
+        writer.close();
+
+        binary(60000);
+        assertEquals(2, server.downloads.get());
+    }
+
+    @Test
+    public void testValidatesOncePerBinary() throws Exception {
+        TunnelBinary first = binary(60000);
+        assertEquals(BinaryServer.VERSION, first.getVersion());
+        assertEquals(1, versionForks(first));
+
+        assertEquals(BinaryServer.VERSION, binary(60000).getVersion());
+        TunnelBinary.clearValidationCache();
+        assertEquals(BinaryServer.VERSION, binary(60000).getVersion());
+        assertEquals(1, versionForks(first));
+
+        File binary = new File(first.getBinaryPath());
+        assertTrue(binary.setLastModified(binary.lastModified() - 10000));
+        binary(60000);
+        assertEquals(2, versionForks(first));
+    }
+
+    private static int versionForks(TunnelBinary binary) throws Exception {
+        File calls = new File(binary.getBinaryPath() + ".versions");
+        return calls.exists() ? Files.readAllLines(calls.toPath()).size() : 0;
+    }
+
+    @Test
+    public void testZipInstallMode() throws Exception {
+        System.setProperty(TunnelBinary.STREAMING_INSTALL_PROPERTY, "false");
+        try {
+            TunnelBinary installed = binary(60000);
+            File binary = new File(installed.getBinaryPath());
+            assertTrue(binary.canExecute());
+            assertTrue(BinaryManifest.load(binary).describes(binary));
+        } finally {
+            System.clearProperty(TunnelBinary.STREAMING_INSTALL_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testConcurrentInstallDownloadsOnce() throws Exception {
+        int workers = 8;
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < workers; i++) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    go.await();
+                    return binary(60000).getBinaryPath();
+                }
+            }));
+        }
+        go.countDown();
+        for (Future<String> result : results) {
+            assertTrue(new File(result.get(30, TimeUnit.SECONDS)).canExecute());
+        }
+        pool.shutdown();
+
+        assertEquals(1, server.downloads.get());
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".part") || name.endsWith(".tmp") || name.startsWith("LT.extract"));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) server.close();
+        if (dir != null) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelLivenessTest {
+    private Tunnel t;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(StubBinary.isWindows());
+        t = new Tunnel();
+    }
+
+    @Test
+    public void testNotifiesWhenTunnelDies() throws Exception {
+        final CountDownLatch exited = new CountDownLatch(1);
+        final AtomicInteger exitedPid = new AtomicInteger();
+        t.addExitListener(new TunnelExitListener() {
+            public void onExit(Tunnel tunnel, int pid) {
+                exitedPid.set(pid);
+                exited.countDown();
+            }
+        });
+        t.start(StubBinary.options(StubBinary.write(StubBinary.DAEMON)));
+        assertTrue(t.isRunning());
+
+        int pid = t.pid;
+        ProcessHandle.of(pid).get().destroy();
+        assertTrue(exited.await(10, TimeUnit.SECONDS));
+        assertEquals(pid, exitedPid.get());
+        assertFalse(t.isRunning());
+    }
+
+    @Test
+    public void testStopIsNotReportedAsExit() throws Exception {
+        final AtomicInteger exits = new AtomicInteger();
+        t.addExitListener(new TunnelExitListener() {
+            public void onExit(Tunnel tunnel, int pid) {
+                exits.incrementAndGet();
+            }
+        });
+        t.start(StubBinary.options(StubBinary.write(StubBinary.DAEMON)));
+        int pid = t.pid;
+        t.stop();
+        assertFalse(t.isRunning());
+
+        ProcessHandle.of(pid).ifPresent(h -> h.onExit().join());
+        Thread.sleep(100);
+        assertEquals(0, exits.get());
+    }
+
+    @Test
+    public void testExitedLauncherIsNotRunning() throws Exception {
+        t.start(StubBinary.options(StubBinary.write(StubBinary.CONNECTS)));
+        Thread.sleep(100);
+        assertFalse(t.isRunning());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (t != null) t.stop();
+    }
+}
@@ -0,0 +1,139 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TunnelLogFollowerTest {
+
+    private File dir;
+    private Path log;
+    private TunnelLogFollower follower;
+    private final List<TunnelLogEvent> events = new ArrayList<TunnelLogEvent>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("lt-log").toFile();
+        log = new File(dir, "tunnel.log").toPath();
+        follower = new TunnelLogFollower(log);
+        follower.addListener(new TunnelLogListener() {
+            public void onEvent(TunnelLogEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        follower.close();
+    }
+
+    private void append(String text) throws Exception {
+        Files.write(log, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static TunnelLogEvent.Type typeOf(String line) {
+        TunnelLogEvent event = TunnelLogFollower.parse(line, Instant.now());
+        return event != null ? event.getType() : null;
+    }
+
+    @Test
+    public void testClassifiesLines() {
+        assertEquals(TunnelLogEvent.Type.ERROR, typeOf("2024/01/02 10:00:00 [ERROR] dial tcp: i/o timeout"));
+        assertEquals(TunnelLogEvent.Type.ERROR, typeOf("{\"level\":\"error\",\"msg\":\"ssh handshake failed\"}"));
+        assertEquals(TunnelLogEvent.Type.RETRY, typeOf("{\"level\":\"warn\",\"msg\":\"Retrying in 5s\"}"));
+        assertEquals(TunnelLogEvent.Type.CONNECTION_OPENED, typeOf("new connection from 127.0.0.1:53122"));
+        assertEquals(TunnelLogEvent.Type.CONNECTION_CLOSED, typeOf("connection closed by peer"));
+        assertEquals(TunnelLogEvent.Type.CONNECTION_CLOSED, typeOf("tunnel disconnected"));
+        assertNull(typeOf("{\"level\":\"info\",\"msg\":\"0 errors so far\"}"));
+        assertNull(typeOf("starting LambdaTest tunnel"));
+
+        TunnelLogEvent latency = TunnelLogFollower.parse("{\"level\":\"info\",\"msg\":\"ping took 42.5ms\"}", Instant.now());
+        assertEquals(TunnelLogEvent.Type.LATENCY, latency.getType());
+        assertEquals(42500000L, latency.getLatency().toNanos());
+        assertEquals("ping took 42.5ms", latency.getMessage());
+    }
+
+    @Test
+    public void testReadsOnlyCompleteLinesIncrementally() throws Exception {
+        assertEquals(0, follower.poll());
+
+        append("new connection a\nlatency: 10 ms\nconnection clo");
+        assertEquals(2, follower.poll());
+        assertEquals(1, follower.getCount(TunnelLogEvent.Type.CONNECTION_OPENED));
+        assertEquals(0, follower.getCount(TunnelLogEvent.Type.CONNECTION_CLOSED));
+
+        append("sed\r\nlatency: 30 ms\n");
+        assertEquals(2, follower.poll());
+        assertEquals(1, follower.getCount(TunnelLogEvent.Type.CONNECTION_CLOSED));
+        assertEquals(20, follower.getMeanLatency().toMillis());
+        assertEquals(30, follower.getMaxLatency().toMillis());
+        assertEquals(4, events.size());
+        assertEquals("connection closed", events.get(2).getMessage());
+    }
+
+    @Test
+    public void testFollowsRotation() throws Exception {
+        append("new connection a\n");
+        follower.poll();
+
+        append("new connection b\n");
+        Files.move(log, new File(dir, "tunnel.log.1").toPath());
+        append("[error] after rotation\n");
+
+        assertEquals(2, follower.poll());
+        assertEquals(2, follower.getCount(TunnelLogEvent.Type.CONNECTION_OPENED));
+        assertEquals(1, follower.getCount(TunnelLogEvent.Type.ERROR));
+    }
+
+    @Test
+    public void testRereadsTruncatedLog() throws Exception {
+        append("new connection a\nnew connection b\n");
+        follower.poll();
+
+        Files.write(log, "retrying\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals(1, follower.poll());
+        assertEquals(1, follower.getCount(TunnelLogEvent.Type.RETRY));
+    }
+
+    @Test
+    public void testSkipsWhatTheLogHeldBefore() throws Exception {
+        append("new connection a\nnew connection b\nretry");
+        TunnelLogFollower later = new TunnelLogFollower(log);
+        TunnelLogFollower rescan = new TunnelLogFollower(log, true);
+        try {
+            append("ing\n[error] after\n");
+            assertEquals(1, later.poll());
+            assertEquals(1, later.getCount(TunnelLogEvent.Type.ERROR));
+            assertEquals(0, later.getCount(TunnelLogEvent.Type.RETRY));
+
+            assertEquals(4, rescan.poll());
+            assertEquals(2, rescan.getCount(TunnelLogEvent.Type.CONNECTION_OPENED));
+            assertEquals(1, rescan.getCount(TunnelLogEvent.Type.RETRY));
+        } finally {
+            later.close();
+            rescan.close();
+        }
+    }
+
+    @Test
+    public void testCutsOverlongLines() throws Exception {
+        StringBuilder huge = new StringBuilder("[error] ");
+        for (int i = 0; i < 100000; i++) huge.append('x');
+        append(huge.append('\n').toString());
+        follower.poll();
+        assertEquals(1, events.size());
+        assertEquals(16 * 1024, events.get(0).getMessage().length());
+    }
+}
@@ -0,0 +1,102 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+public class TunnelMetricsTest {
+    private HttpServer server;
+    private volatile String body;
+    private TunnelMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(TunnelMetrics.INFO_PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        metrics = new TunnelMetrics(server.getAddress().getPort(), "metrics-test");
+    }
+
+    @Test
+    public void testPollParsesNestedMembers() throws Exception {
+        body = "{\"status\":\"SUCCESS\",\"data\":{\"state\":\"connected\",\"name\":\"a \\\"b\\\"\","
+                + "\"stats\":{\"requestCount\":42,\"activeConnections\":3,\"bytesIn\":1000,\"bytesOut\":24},"
+                + "\"tags\":[1,true,null,{\"x\":1.5}]}}";
+        metrics.poll();
+        assertEquals("connected", metrics.getState());
+        assertEquals(42, metrics.getRequestCount());
+        assertEquals(3, metrics.getActiveConnections());
+        assertEquals(1024, metrics.getBytesTransferred());
+        assertEquals(1, metrics.getPollCount());
+        assertTrue(metrics.getLastPollTime() > 0);
+    }
+
+    @Test
+    public void testMalformedResponseLeavesGauges() throws Exception {
+        body = "{\"state\":\"connected\",\"requestCount\":7}";
+        metrics.poll();
+        body = "{\"state\":\"disconnected\",\"requestCount\":";
+        try {
+            metrics.poll();
+            fail("expected malformed response to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals("connected", metrics.getState());
+        assertEquals(7, metrics.getRequestCount());
+        assertEquals(1, metrics.getPollFailures());
+    }
+
+    @Test
+    public void testScheduledPollingAndMBean() throws Exception {
+        body = "{\"state\":\"connected\",\"requests\":5}";
+        ObjectName name = metrics.registerMBean();
+        metrics.start(50);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getPollCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(metrics.getPollCount() >= 2);
+        assertEquals(5L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RequestCount"));
+        metrics.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testPortFromTunnelOptions() throws Exception {
+        Tunnel t = new Tunnel();
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("infoAPIPort", String.valueOf(server.getAddress().getPort()));
+        t.startOptions = options;
+        body = "{\"state\":\"connected\"}";
+        TunnelMetrics fromTunnel = new TunnelMetrics(t);
+        fromTunnel.poll();
+        assertEquals("connected", fromTunnel.getState());
+    }
+
+    @After
+    public void tearDown() {
+        metrics.close();
+        server.stop(0);
+    }
+}
@@ -0,0 +1,123 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+public class TunnelOptionsTest {
+
+    @Test
+    public void testCompilesCommand() {
+        TunnelOptions options = TunnelOptions.builder()
+                .key("secret")
+                .tunnelName("xyz")
+                .proxyHost("localhost")
+                .proxyPort(8080)
+                .option("customKey", "customValue")
+                .verbose(true)
+                .build();
+
+        List<String> start = options.command("/opt/LT", "start");
+        assertEquals(Arrays.asList("/opt/LT", "-d", "start", "--key", "secret", "-tunnelName", "xyz",
+                "-proxy-host", "localhost", "-proxy-port", "8080", "-customKey", "customValue", "-v"), start);
+        assertSame(start, options.command("/opt/LT", "start"));
+        assertEquals("stop", options.command("/opt/LT", "stop").get(2));
+        assertEquals("/other/LT", options.command("/other/LT", "start").get(0));
+    }
+
+    @Test
+    public void testFalseFlagIsLeftOut() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "secret");
+        map.put("v", "false");
+        map.put("binarypath", "/opt/LT");
+        map.put("onlyCommand", "true");
+        List<String> command = TunnelOptions.of(map).command("/opt/LT", "start");
+        assertEquals(Arrays.asList("/opt/LT", "-d", "start", "--key", "secret"), command);
+
+        map.put("v", "TRUE");
+        assertTrue(TunnelOptions.of(map).command("/opt/LT", "start").contains("-v"));
+    }
+
+    @Test
+    public void testValidates() {
+        try {
+            TunnelOptions.builder().tunnelName("xyz").build();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "secret");
+        map.put("infoAPIPort", "eighty");
+        try {
+            TunnelOptions.of(map);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testMapApiReportsInvalidOptionsAsTunnelException() throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("onlyCommand", "true");
+        try {
+            new Tunnel().start(map);
+            fail();
+        } catch (TunnelException expected) {
+            assertEquals("The key option is required", expected.getMessage());
+        }
+        try {
+            new Tunnel().stop(map);
+            fail();
+        } catch (TunnelException expected) {
+        }
+        try {
+            new Tunnel().startAsync(map).join();
+            fail();
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof TunnelException);
+        }
+    }
+
+    @Test
+    public void testIsImmutable() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "secret");
+        TunnelOptions options = TunnelOptions.of(map);
+        map.put("tunnelName", "later");
+        assertNull(options.getTunnelName());
+
+        TunnelOptions named = options.toBuilder().tunnelName("pool-1").build();
+        assertEquals("pool-1", named.getTunnelName());
+        assertNull(options.getTunnelName());
+        try {
+            options.asMap().put("key", "other");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testStartsFromOptions() throws Exception {
+        org.junit.Assume.assumeFalse(StubBinary.isWindows());
+        TunnelOptions options = TunnelOptions.builder()
+                .key("stub-key")
+                .binaryPath(StubBinary.write(StubBinary.DAEMON).getPath())
+                .build();
+        Tunnel first = new Tunnel();
+        Tunnel second = new Tunnel();
+        first.start(options);
+        second.start(options.toBuilder().tunnelName("second").build());
+        assertTrue(first.isRunning());
+        assertTrue(second.isRunning());
+        first.stop();
+        second.stop();
+        assertFalse(first.isRunning());
+    }
+}
@@ -0,0 +1,130 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelPoolTest {
+    private TunnelPool pool;
+    private Map<String, String> options;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse(StubBinary.isWindows());
+        options = StubBinary.options(StubBinary.write(StubBinary.DAEMON));
+        options.put("tunnelName", "suite");
+    }
+
+    @Test
+    public void testRoundRobinLeasesDistinctTunnels() throws Exception {
+        pool = new TunnelPool(options, 3);
+        pool.setSelection(TunnelPool.Selection.ROUND_ROBIN);
+        pool.start();
+        assertEquals(3, pool.getHealthyCount());
+
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < 3; i++) {
+            TunnelPool.Lease lease = pool.lease();
+            assertTrue(lease.getTunnel().isRunning());
+            names.add(lease.getTunnelName());
+            lease.close();
+        }
+        assertEquals(new HashSet<String>(java.util.Arrays.asList("suite-1", "suite-2", "suite-3")), names);
+    }
+
+    @Test
+    public void testLeastLoadedAndMaxLeaseWait() throws Exception {
+        pool = new TunnelPool(options, 2);
+        pool.setMaxLeasesPerTunnel(1);
+        pool.setMaxLeaseWait(200);
+        pool.start();
+
+        TunnelPool.Lease first = pool.lease();
+        TunnelPool.Lease second = pool.lease();
+        assertNotEquals(first.getTunnelName(), second.getTunnelName());
+        try {
+            pool.lease();
+            fail("expected pool to be exhausted");
+        } catch (TunnelException expected) {
+        }
+        pool.release(first);
+        assertEquals(first.getTunnelName(), pool.lease().getTunnelName());
+    }
+
+    @Test
+    public void testReplacesDeadTunnel() throws Exception {
+        pool = new TunnelPool(options, 2);
+        pool.setHealthCheckInterval(100);
+        pool.start();
+
+        TunnelPool.Lease lease = pool.lease();
+        Tunnel dead = lease.getTunnel();
+        lease.close();
+        Runtime.getRuntime().exec(new String[]{"kill", String.valueOf(dead.pid)}).waitFor();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        boolean replaced = false;
+        while (!replaced && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            for (int i = 0; i < 2 && !replaced; i++) {
+                TunnelPool.Lease l = pool.lease();
+                replaced = l.getTunnelName().equals(lease.getTunnelName()) && l.getTunnel() != dead;
+                l.close();
+            }
+        }
+        assertTrue(replaced);
+        assertEquals(2, pool.getHealthyCount());
+        assertFalse(Tunnels.running().contains(dead));
+    }
+
+    @Test
+    public void testBacksOffFailingReplacements() throws Exception {
+        final List<Tunnel> created = new ArrayList<Tunnel>();
+        Map<String, String> simulated = new HashMap<String, String>();
+        simulated.put("key", "simulated");
+        simulated.put("tunnelName", "backoff");
+        pool = new TunnelPool(simulated, 1) {
+            @Override
+            protected Tunnel newTunnel() {
+                SimulatedTunnel tunnel = new SimulatedTunnel();
+                synchronized (created) {
+                    if (created.isEmpty()) {
+                        tunnel.setCrashAfter(50);
+                    } else {
+                        tunnel.setFailureRate(1);
+                    }
+                    created.add(tunnel);
+                }
+                return tunnel;
+            }
+        };
+        pool.setHealthCheckInterval(50);
+        pool.start();
+        Tunnel crashed = created.get(0);
+        Thread.sleep(1600);
+
+        assertEquals(0, pool.getHealthyCount());
+        assertFalse(Tunnels.running().contains(crashed));
+        // retried about 100, 200, 400 and 800ms apart rather than every 50ms
+        int attempts;
+        synchronized (created) {
+            attempts = created.size() - 1;
+        }
+        assertTrue("attempts: " + attempts, attempts >= 2 && attempts <= 5);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) pool.close();
+    }
+}
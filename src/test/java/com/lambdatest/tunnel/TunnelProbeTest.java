@@ -0,0 +1,157 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TunnelProbeTest {
+
+    private static final long PROXY_DELAY = 20;
+
+    private HttpServer proxy;
+    private final AtomicInteger proxied = new AtomicInteger();
+    private volatile int failEvery = 0;
+
+    /**
+     * Loopback stand-in for the tunnel's proxy: forwards absolute-form requests after a delay.
+     */
+    @Before
+    public void setUp() throws Exception {
+        proxy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        proxy.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                forward(exchange);
+            }
+        });
+        proxy.setExecutor(Executors.newCachedThreadPool(TunnelExecutors.daemonThreads("probe-test-proxy")));
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.stop(0);
+    }
+
+    private void forward(HttpExchange exchange) throws IOException {
+        int count = proxied.incrementAndGet();
+        boolean fail = failEvery > 0 && count % failEvery == 0;
+        try {
+            // failures take long, so that counting them would show in the percentiles
+            Thread.sleep(fail ? 10 * PROXY_DELAY : PROXY_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fail) {
+            exchange.sendResponseHeaders(502, -1);
+            exchange.close();
+            return;
+        }
+        HttpURLConnection upstream = (HttpURLConnection) exchange.getRequestURI().toURL().openConnection(Proxy.NO_PROXY);
+        upstream.setRequestMethod(exchange.getRequestMethod());
+        upstream.setDoOutput(true);
+        copy(exchange.getRequestBody(), upstream.getOutputStream());
+        byte[] body = readAll(upstream.getInputStream());
+        exchange.sendResponseHeaders(upstream.getResponseCode(), body.length > 0 ? body.length : -1);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+        in.close();
+        out.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        copy(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testMeasuresThroughProxy() throws Exception {
+        TunnelProbe probe = new TunnelProbe("127.0.0.1", proxy.getAddress().getPort());
+        probe.setPayloadSize(32 * 1024);
+        probe.setConcurrency(4);
+        probe.setRequests(40);
+        probe.setWarmupRequests(4);
+
+        TunnelProbe.Result tunnel = probe.run();
+        assertEquals(44, proxied.get());
+        assertEquals(40, tunnel.getRequests());
+        assertEquals(0, tunnel.getErrors());
+        assertTrue(tunnel.getP50().toMillis() >= PROXY_DELAY);
+        assertTrue(tunnel.getP50().compareTo(tunnel.getP95()) <= 0);
+        assertTrue(tunnel.getP95().compareTo(tunnel.getP99()) <= 0);
+        assertTrue(tunnel.getThroughput() > 0);
+
+        TunnelProbe.Result direct = probe.runDirect();
+        assertEquals(44, proxied.get());
+        assertEquals(0, direct.getErrors());
+        assertTrue(direct.getP50().compareTo(tunnel.getP50()) < 0);
+    }
+
+    @Test
+    public void testUsesTunnelPortOption() throws Exception {
+        Tunnel t = new Tunnel();
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("port", String.valueOf(proxy.getAddress().getPort()));
+        // the binary's upstream proxy, not where its own proxy listens
+        options.put("proxyHost", "proxy.invalid");
+        t.startOptions = options;
+
+        TunnelProbe probe = new TunnelProbe(t);
+        probe.setRequests(5);
+        probe.setWarmupRequests(0);
+        assertEquals(0, probe.run().getErrors());
+        assertEquals(5, proxied.get());
+    }
+
+    @Test
+    public void testCountsErrorsWhenProxyIsDown() throws Exception {
+        int port = proxy.getAddress().getPort();
+        proxy.stop(0);
+        TunnelProbe probe = new TunnelProbe("127.0.0.1", port);
+        probe.setRequests(3);
+        probe.setWarmupRequests(0);
+        probe.setTimeout(1000);
+        TunnelProbe.Result result = probe.run();
+        assertEquals(3, result.getErrors());
+        assertEquals(3, result.getRequests());
+        assertEquals(Duration.ZERO, result.getP99());
+    }
+
+    @Test
+    public void testFailedRequestsAreNotMeasured() throws Exception {
+        failEvery = 4;
+        TunnelProbe probe = new TunnelProbe("127.0.0.1", proxy.getAddress().getPort());
+        probe.setConcurrency(1);
+        probe.setRequests(20);
+        probe.setWarmupRequests(0);
+
+        TunnelProbe.Result result = probe.run();
+        assertEquals(20, result.getRequests());
+        assertEquals(5, result.getErrors());
+        assertTrue(result.getP99().toMillis() < 10 * PROXY_DELAY);
+    }
+}
@@ -0,0 +1,95 @@
+package com.lambdatest.tunnel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelReadinessTest {
+
+    @Before
+    public void setUp() {
+        assumeFalse(StubBinary.isWindows());
+    }
+
+    @Test
+    public void testReturnsOnStateWithoutWaitingForEof() throws Exception {
+        String script = "#!/bin/sh\n"
+                + "echo 'starting tunnel'\n"
+                + "echo '{'\n"
+                + "echo '  \"state\": \"connected\",'\n"
+                + "echo '  \"pid\": '$$\n"
+                + "echo '}'\n"
+                + "exec sleep 30\n";
+        Tunnel t = new Tunnel();
+        long started = System.nanoTime();
+        t.start(StubBinary.options(StubBinary.write(script)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 10000);
+        assertTrue(t.pid > 0);
+        ProcessHandle.of(t.pid).ifPresent(ProcessHandle::destroy);
+    }
+
+    @Test
+    public void testErrorEventOnStderr() throws Exception {
+        String script = "#!/bin/sh\n"
+                + "echo '{\"state\":\"error\",\"message\":{\"message\":\"invalid key\"}}' >&2\n";
+        Tunnel t = new Tunnel();
+        try {
+            t.start(StubBinary.options(StubBinary.write(script)));
+            fail("expected error event");
+        } catch (TunnelException e) {
+            assertEquals("invalid key", e.getMessage());
+        }
+        assertEquals(0, t.pid);
+    }
+
+    @Test
+    public void testExitWithoutState() throws Exception {
+        Tunnel t = new Tunnel();
+        try {
+            t.start(StubBinary.options(StubBinary.write("#!/bin/sh\necho 'bad flag'\nexit 2\n")));
+            fail("expected missing state");
+        } catch (TunnelException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("bad flag"));
+        }
+    }
+
+    @Test
+    public void testStartsAgainAfterStop() throws Exception {
+        Tunnel t = new Tunnel();
+        Map<String, String> options = StubBinary.options(StubBinary.write(StubBinary.DAEMON));
+        t.start(options);
+        int first = t.pid;
+        t.stop();
+
+        t.start(options);
+        assertTrue(t.pid > 0);
+        assertNotEquals(first, t.pid);
+        assertTrue(t.isRunning());
+        t.stop();
+    }
+
+    @Test
+    public void testRetriesAfterFailedStart() throws Exception {
+        File binary = StubBinary.write("#!/bin/sh\n"
+                + "if [ ! -f \"$0.failed\" ]; then touch \"$0.failed\"; echo '{\"state\":\"error\",\"message\":\"busy\"}'; exit 1; fi\n"
+                + "echo '{\"state\":\"connected\",\"pid\":'$$'}'\n");
+        new File(binary.getPath() + ".failed").deleteOnExit();
+        Tunnel t = new Tunnel();
+        try {
+            t.start(StubBinary.options(binary));
+            fail("expected the first start to fail");
+        } catch (TunnelException e) {
+            assertEquals("busy", e.getMessage());
+        }
+
+        t.start(StubBinary.options(binary));
+        assertTrue(t.pid > 0);
+        Tunnels.unregister(t);
+    }
+}
@@ -0,0 +1,175 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TunnelRegistryTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("lt-registry").toFile();
+        System.setProperty(TunnelRegistry.DIR_PROPERTY, dir.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(TunnelRegistry.DIR_PROPERTY);
+        new File(dir, TunnelRegistry.FILE_NAME).delete();
+        dir.delete();
+    }
+
+    private static Map<String, String> options(String tunnelName) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "simulated");
+        options.put("tunnelName", tunnelName);
+        return options;
+    }
+
+    @Test
+    public void testSecondTunnelAttaches() throws Exception {
+        final AtomicInteger starts = new AtomicInteger();
+        TunnelLifecycleListener counter = new TunnelLifecycleListener() {
+            public void onPhase(Tunnel tunnel, StartupPhase phase, java.time.Duration duration) {
+                if (phase == StartupPhase.SPAWN) starts.incrementAndGet();
+            }
+        };
+        SimulatedTunnel first = new SimulatedTunnel();
+        SimulatedTunnel second = new SimulatedTunnel();
+        first.addLifecycleListener(counter);
+        second.addLifecycleListener(counter);
+
+        first.startOrAttach(options("shared"));
+        second.startOrAttach(options("shared"));
+        assertEquals(1, starts.get());
+        assertEquals(first.pid, second.pid);
+        assertTrue(second.isRunning());
+
+        first.detach();
+        assertEquals(0, first.pid);
+        assertTrue(second.isRunning());
+
+        int pid = second.pid;
+        second.detach();
+        assertFalse(second.isRunning());
+        assertNull(new SimulatedTunnel().watchProcess(pid));
+    }
+
+    @Test
+    public void testDifferentOptionsStartSeparateTunnels() throws Exception {
+        SimulatedTunnel a = new SimulatedTunnel();
+        SimulatedTunnel b = new SimulatedTunnel();
+        a.startOrAttach(options("a"));
+        b.startOrAttach(options("b"));
+        assertNotEquals(a.pid, b.pid);
+        a.detach();
+        b.detach();
+    }
+
+    @Test
+    public void testDeadTunnelIsReplaced() throws Exception {
+        SimulatedTunnel crashing = new SimulatedTunnel();
+        crashing.setCrashAfter(50);
+        crashing.startOrAttach(options("crashing"));
+        int crashed = crashing.pid;
+        Thread.sleep(300);
+
+        SimulatedTunnel next = new SimulatedTunnel();
+        next.startOrAttach(options("crashing"));
+        assertNotEquals(crashed, next.pid);
+        assertTrue(next.isRunning());
+        next.detach();
+        crashing.detach();
+    }
+
+    @Test
+    public void testDeadHoldersArePruned() throws Exception {
+        byte[] key = TunnelRegistry.keyOf(options("pruned"));
+        SimulatedTunnel tunnel = new SimulatedTunnel();
+        tunnel.startOrAttach(options("pruned"));
+
+        // a fork that died without detaching
+        TunnelRegistry gone = new TunnelRegistry(dir, Integer.MAX_VALUE);
+        gone.attach(key, 0, pid -> true, () -> {
+            throw new AssertionError("should attach");
+        });
+
+        TunnelRegistry registry = new TunnelRegistry();
+        assertEquals(1, registry.references(key, pid -> true));
+        tunnel.detach();
+        assertEquals(0, registry.references(key, pid -> true));
+    }
+
+    @Test
+    public void testTunnelOfDeadHoldersIsHandedOver() throws Exception {
+        byte[] key = TunnelRegistry.keyOf(options("orphan"));
+        SimulatedTunnel daemon = new SimulatedTunnel();
+        daemon.start(options("orphan"));
+        final int pid = daemon.pid;
+
+        // a fork that started the tunnel and died without detaching
+        TunnelRegistry gone = new TunnelRegistry(dir, Integer.MAX_VALUE);
+        gone.attach(key, 0, p -> true, () -> pid);
+
+        SimulatedTunnel next = new SimulatedTunnel();
+        next.startOrAttach(options("orphan"));
+        assertEquals(pid, next.pid);
+        assertEquals(1, new TunnelRegistry().references(key, p -> true));
+
+        next.detach();
+        assertNull(new SimulatedTunnel().watchProcess(pid));
+        assertEquals(0, new TunnelRegistry().references(key, p -> true));
+        Tunnels.unregister(daemon);
+    }
+
+    @Test
+    public void testStartDoesNotLockOtherTunnels() throws Exception {
+        final byte[] slow = TunnelRegistry.keyOf(options("slow"));
+        final byte[] fast = TunnelRegistry.keyOf(options("fast"));
+        final CountDownLatch starting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TunnelRegistry registry = new TunnelRegistry();
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> attach(registry, slow, () -> {
+            starting.countDown();
+            release.await();
+            return 4242;
+        }));
+        assertTrue(starting.await(5, TimeUnit.SECONDS));
+
+        // another tunnel goes ahead while the first one is still connecting
+        assertEquals(4343, registry.attach(fast, 0, pid -> true, () -> 4343));
+
+        // the same tunnel waits for it and attaches
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(() -> attach(registry, slow, () -> {
+            throw new AssertionError("should attach");
+        }));
+        Thread.sleep(300);
+        assertFalse(second.isDone());
+        release.countDown();
+        assertEquals(4242, (int) first.get(5, TimeUnit.SECONDS));
+        assertEquals(4242, (int) second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, registry.references(slow, pid -> true));
+    }
+
+    private static int attach(TunnelRegistry registry, byte[] key, TunnelRegistry.Starter starter) {
+        try {
+            return registry.attach(key, 0, pid -> true, starter);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
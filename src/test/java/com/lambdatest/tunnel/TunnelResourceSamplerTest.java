@@ -0,0 +1,88 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class TunnelResourceSamplerTest {
+
+    private Process dummy;
+
+    @Before
+    public void setUp() {
+        assumeTrue(TunnelResourceSampler.isSupported());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (dummy != null) {
+            dummy.destroyForcibly().waitFor();
+        }
+    }
+
+    @Test
+    public void testSamplesBusyProcess() throws Exception {
+        dummy = new ProcessBuilder("sh", "-c", "while :; do :; done").start();
+        TunnelResourceSampler sampler = new TunnelResourceSampler((int) dummy.pid());
+        sampler.setWindow(3);
+
+        assertTrue(sampler.sample());
+        assertEquals(-1, sampler.getLatest(TunnelResourceSampler.Resource.CPU));
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(200);
+            assertTrue(sampler.sample());
+        }
+
+        assertEquals(5, sampler.getSampleCount());
+        // a busy loop keeps about one core busy
+        assertTrue(sampler.toString(), sampler.getAverage(TunnelResourceSampler.Resource.CPU) > 500);
+        assertTrue(sampler.getPeak(TunnelResourceSampler.Resource.CPU) <= 1500);
+        assertTrue(sampler.getLatest(TunnelResourceSampler.Resource.RSS) > 0);
+        assertEquals(1, sampler.getLatest(TunnelResourceSampler.Resource.THREADS));
+        // stdin, stdout and stderr are pipes to this JVM
+        assertTrue(sampler.getLatest(TunnelResourceSampler.Resource.FILE_DESCRIPTORS) >= 3);
+        assertEquals(0, sampler.getLatest(TunnelResourceSampler.Resource.CONNECTIONS));
+    }
+
+    @Test
+    public void testCountsSocketsAndConnections() throws Exception {
+        TunnelResourceSampler sampler = new TunnelResourceSampler((int) ProcessHandle.current().pid());
+        assertTrue(sampler.sample());
+        long sockets = sampler.getLatest(TunnelResourceSampler.Resource.SOCKETS);
+        long connections = sampler.getLatest(TunnelResourceSampler.Resource.CONNECTIONS);
+
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        Socket accepted = server.accept();
+        try {
+            assertTrue(sampler.sample());
+            assertEquals(sockets + 3, sampler.getLatest(TunnelResourceSampler.Resource.SOCKETS));
+            // both ends of the loopback connection belong to this process
+            assertEquals(connections + 2, sampler.getLatest(TunnelResourceSampler.Resource.CONNECTIONS));
+            assertEquals(sockets + 3, sampler.getPeak(TunnelResourceSampler.Resource.SOCKETS));
+        } finally {
+            accepted.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testReportsExit() throws Exception {
+        dummy = new ProcessBuilder("sleep", "60").start();
+        TunnelResourceSampler sampler = new TunnelResourceSampler((int) dummy.pid());
+        assertTrue(sampler.sample());
+        dummy.destroyForcibly().waitFor();
+
+        assertFalse(sampler.sample());
+        assertTrue(sampler.hasExited());
+        assertEquals(1, sampler.getSampleCount());
+    }
+}
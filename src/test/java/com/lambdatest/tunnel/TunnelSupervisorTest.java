@@ -0,0 +1,219 @@
+package com.lambdatest.tunnel;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TunnelSupervisorTest {
+
+    private static Map<String, String> options() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "simulated");
+        options.put("tunnelName", "supervised");
+        return options;
+    }
+
+    @Test
+    public void testReconnectsAfterCrash() throws Exception {
+        SimulatedTunnel t = new SimulatedTunnel();
+        t.setCrashAfter(100);
+        t.start(options());
+        int crashed = t.pid;
+        t.setCrashAfter(0);
+
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final AtomicReference<String> reason = new AtomicReference<String>();
+        TunnelSupervisor supervisor = new TunnelSupervisor(t);
+        supervisor.addListener(new TunnelSupervisorListener() {
+            public void onDisconnect(Tunnel tunnel, String why) {
+                reason.set(why);
+            }
+
+            public void onReconnect(Tunnel tunnel, Duration downtime, int attempts) {
+                reconnected.countDown();
+            }
+        });
+        supervisor.start();
+        try {
+            assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+            assertEquals("tunnel process exited", reason.get());
+            assertTrue(t.isRunning());
+            assertNotEquals(crashed, t.pid);
+            assertEquals(1, supervisor.getReconnectCount());
+        } finally {
+            supervisor.close();
+            t.stop();
+        }
+    }
+
+    @Test
+    public void testBacksOffUntilStartSucceeds() throws Exception {
+        final SimulatedTunnel t = new SimulatedTunnel();
+        t.setCrashAfter(100);
+        t.start(options());
+        t.setCrashAfter(0);
+        t.setFailureRate(1.0);
+
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final AtomicInteger attempts = new AtomicInteger();
+        TunnelSupervisor supervisor = new TunnelSupervisor(t);
+        supervisor.setInitialBackoff(20);
+        supervisor.setMaxBackoff(100);
+        supervisor.addListener(new TunnelSupervisorListener() {
+            public void onDisconnect(Tunnel tunnel, String why) {
+            }
+
+            public void onReconnect(Tunnel tunnel, Duration downtime, int attempt) {
+                attempts.set(attempt);
+                reconnected.countDown();
+            }
+
+            public void onReconnectFailed(Tunnel tunnel, Exception error, int attempt, long nextMillis) {
+                assertTrue(nextMillis <= 100);
+                if (attempt == 3) t.setFailureRate(0);
+            }
+        });
+        supervisor.start();
+        try {
+            assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+            assertEquals(4, attempts.get());
+            assertTrue(supervisor.getLastDowntime().toMillis() >= 30);
+        } finally {
+            supervisor.close();
+            t.stop();
+        }
+    }
+
+    @Test
+    public void testLeavesStoppedTunnelAlone() throws Exception {
+        SimulatedTunnel t = new SimulatedTunnel();
+        t.start(options());
+        final AtomicInteger disconnects = new AtomicInteger();
+        TunnelSupervisor supervisor = new TunnelSupervisor(t);
+        supervisor.setCheckInterval(50);
+        supervisor.addListener(new TunnelSupervisorListener() {
+            public void onDisconnect(Tunnel tunnel, String why) {
+                disconnects.incrementAndGet();
+            }
+
+            public void onReconnect(Tunnel tunnel, Duration downtime, int attempts) {
+            }
+        });
+        supervisor.start();
+        try {
+            t.stop();
+            Thread.sleep(300);
+            assertEquals(0, disconnects.get());
+            assertEquals(0, supervisor.getReconnectCount());
+            assertEquals(0, t.pid);
+        } finally {
+            supervisor.close();
+        }
+    }
+
+    @Test
+    public void testRestartOfSharedTunnelOnlyDetaches() throws Exception {
+        File dir = Files.createTempDirectory("lt-registry").toFile();
+        System.setProperty(TunnelRegistry.DIR_PROPERTY, dir.getPath());
+        // accepts connections but never answers, so every probe stalls
+        ServerSocket silent = new ServerSocket(0);
+        Map<String, String> options = options();
+        options.put("infoAPIPort", String.valueOf(silent.getLocalPort()));
+        SimulatedTunnel supervised = new SimulatedTunnel();
+        SimulatedTunnel other = new SimulatedTunnel();
+        supervised.startOrAttach(options);
+        other.startOrAttach(options);
+
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        TunnelSupervisor supervisor = new TunnelSupervisor(supervised);
+        supervisor.setCheckInterval(50);
+        supervisor.setStallTimeout(100);
+        supervisor.setMaxStalls(1);
+        supervisor.addListener(new TunnelSupervisorListener() {
+            public void onDisconnect(Tunnel tunnel, String why) {
+            }
+
+            public void onReconnect(Tunnel tunnel, Duration downtime, int attempts) {
+                reconnected.countDown();
+            }
+        });
+        supervisor.start();
+        try {
+            assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+            // the stall in one JVM does not stop the tunnel under the others
+            assertTrue(other.isRunning());
+            assertEquals(other.pid, supervised.pid);
+        } finally {
+            supervisor.close();
+            supervised.detach();
+            other.detach();
+            silent.close();
+            System.clearProperty(TunnelRegistry.DIR_PROPERTY);
+            new File(dir, TunnelRegistry.FILE_NAME).delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testRestartsStalledTunnel() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(TunnelMetrics.INFO_PATH, exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] body = "{\"status\":\"SUCCESS\"}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(TunnelExecutors.io());
+        server.start();
+
+        SimulatedTunnel t = new SimulatedTunnel();
+        Map<String, String> options = options();
+        options.put("infoAPIPort", String.valueOf(server.getAddress().getPort()));
+        t.start(options);
+        int stalled = t.pid;
+
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final AtomicReference<String> reason = new AtomicReference<String>();
+        TunnelSupervisor supervisor = new TunnelSupervisor(t);
+        supervisor.setCheckInterval(50);
+        supervisor.setStallTimeout(100);
+        supervisor.setMaxStalls(2);
+        supervisor.addListener(new TunnelSupervisorListener() {
+            public void onDisconnect(Tunnel tunnel, String why) {
+                reason.set(why);
+            }
+
+            public void onReconnect(Tunnel tunnel, Duration downtime, int attempts) {
+                reconnected.countDown();
+            }
+        });
+        supervisor.start();
+        try {
+            assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+            assertTrue(reason.get(), reason.get().contains("stalled"));
+            assertNotEquals(stalled, t.pid);
+            assertNull(t.watchProcess(stalled));
+        } finally {
+            supervisor.close();
+            t.stop();
+            server.stop(0);
+        }
+    }
+}
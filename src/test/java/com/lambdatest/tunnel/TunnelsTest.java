@@ -0,0 +1,156 @@
+package com.lambdatest.tunnel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+public class TunnelsTest {
+
+    /**
+     * Starts like {@link StubBinary#DAEMON} but never finishes a stop.
+     */
+    private static final String HANGS_ON_STOP = "#!/bin/sh\n"
+            + "case \"$*\" in *'-d start'*) sleep 60 >/dev/null 2>&1 </dev/null & echo '{\"state\":\"connected\",\"pid\":'$!'}';;\n"
+            + "*) exec sleep 60;; esac\n";
+
+    private final List<Tunnel> tunnels = new ArrayList<Tunnel>();
+
+    @Before
+    public void setUp() {
+        assumeFalse(StubBinary.isWindows());
+    }
+
+    @After
+    public void tearDown() {
+        for (Tunnel tunnel : tunnels) {
+            Tunnels.kill(tunnel.pid);
+            Tunnels.unregister(tunnel);
+        }
+    }
+
+    private Tunnel start(File binary, String name) throws Exception {
+        Map<String, String> options = StubBinary.options(binary);
+        options.put("tunnelName", name);
+        Tunnel tunnel = new Tunnel();
+        tunnel.start(options);
+        tunnels.add(tunnel);
+        return tunnel;
+    }
+
+    private static boolean alive(int pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    @Test
+    public void testStopAllStopsEveryTunnel() throws Exception {
+        File binary = StubBinary.write(StubBinary.DAEMON);
+        List<Integer> pids = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++) {
+            pids.add(start(binary, "tunnel-" + i).pid);
+        }
+        assertTrue(Tunnels.running().containsAll(tunnels));
+
+        List<Tunnels.Teardown> teardowns = Tunnels.stopAll(Duration.ofSeconds(10));
+        assertTrue(teardowns.size() >= 3);
+        for (Tunnels.Teardown teardown : teardowns) {
+            if (!tunnels.contains(teardown.getTunnel())) continue;
+            assertEquals(Tunnels.Outcome.STOPPED, teardown.getOutcome());
+            assertTrue(pids.contains(teardown.getPid()));
+        }
+        for (Tunnel tunnel : tunnels) {
+            assertFalse(Tunnels.running().contains(tunnel));
+            assertEquals(0, tunnel.pid);
+        }
+        for (int pid : pids) {
+            ProcessHandle.of(pid).ifPresent(h -> h.onExit().join());
+        }
+    }
+
+    @Test
+    public void testKillsTunnelsThatDoNotStopInTime() throws Exception {
+        File binary = StubBinary.write(HANGS_ON_STOP);
+        List<Integer> pids = new ArrayList<Integer>();
+        for (int i = 0; i < 4; i++) {
+            pids.add(start(binary, "hanging-" + i).pid);
+        }
+
+        long started = System.nanoTime();
+        List<Tunnels.Teardown> teardowns = Tunnels.stopAll(Duration.ofMillis(500));
+        long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+        // one deadline plus at most one kill grace period, not one of each per tunnel
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 3000);
+        for (Tunnels.Teardown teardown : teardowns) {
+            if (!tunnels.contains(teardown.getTunnel())) continue;
+            assertEquals(Tunnels.Outcome.KILLED, teardown.getOutcome());
+            assertTrue(teardown.getDuration().toMillis() >= 500);
+        }
+        for (int pid : pids) {
+            ProcessHandle.of(pid).ifPresent(h -> h.onExit().join());
+            assertFalse(alive(pid));
+        }
+        assertTrue(Tunnels.running().isEmpty());
+    }
+
+    @Test
+    public void testStoppedTunnelIsForgotten() throws Exception {
+        Tunnel tunnel = start(StubBinary.write(StubBinary.DAEMON), "stopped");
+        assertTrue(Tunnels.running().contains(tunnel));
+        tunnel.stop();
+        assertFalse(Tunnels.running().contains(tunnel));
+    }
+
+    @Test
+    public void testSharedTunnelIsNotKilledUnderOtherHolders() throws Exception {
+        File dir = Files.createTempDirectory("lt-registry").toFile();
+        System.setProperty(TunnelRegistry.DIR_PROPERTY, dir.getPath());
+        Process otherJvm = new ProcessBuilder("sleep", "60").start();
+        try {
+            final AtomicBoolean failing = new AtomicBoolean();
+            SimulatedTunnel shared = new SimulatedTunnel() {
+                @Override
+                protected boolean isProcessAlive(int pid) {
+                    if (failing.getAndSet(false)) throw new IllegalStateException("registry unavailable");
+                    return super.isProcessAlive(pid);
+                }
+            };
+            Map<String, String> options = new HashMap<String, String>();
+            options.put("key", "simulated");
+            options.put("tunnelName", "shared-teardown");
+            shared.startOrAttach(options);
+            int pid = shared.pid;
+            byte[] key = TunnelRegistry.keyOf(options);
+            new TunnelRegistry(dir, (int) otherJvm.pid()).attach(key, 0, p -> true, () -> {
+                throw new AssertionError("should attach");
+            });
+
+            // the detach fails, and this JVM is not the last holder
+            failing.set(true);
+            Tunnels.Teardown teardown = null;
+            for (Tunnels.Teardown t : Tunnels.stopAll(Duration.ofSeconds(5))) {
+                if (t.getTunnel() == shared) teardown = t;
+            }
+            assertEquals(Tunnels.Outcome.DETACHED, teardown.getOutcome());
+            assertTrue(teardown.getError() instanceof IllegalStateException);
+            assertTrue(shared.isProcessAlive(pid));
+            assertEquals(1, new TunnelRegistry().references(key, shared::isProcessAlive));
+        } finally {
+            otherJvm.destroy();
+            System.clearProperty(TunnelRegistry.DIR_PROPERTY);
+            new File(dir, TunnelRegistry.FILE_NAME).delete();
+            dir.delete();
+        }
+    }
+}
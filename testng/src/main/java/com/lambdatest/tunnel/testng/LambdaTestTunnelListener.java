@@ -0,0 +1,61 @@
+package com.lambdatest.tunnel.testng;
+
+import com.lambdatest.tunnel.SharedTunnel;
+import com.lambdatest.tunnel.Tunnel;
+import com.lambdatest.tunnel.TunnelOptions;
+import org.testng.IExecutionListener;
+
+/**
+ * Starts the {@link SharedTunnel} in the background when TestNG begins executing, so that it
+ * connects while suites and fixtures are set up, and stops it once every suite has run. Registered
+ * automatically through the service loader; does nothing unless a LambdaTest key is configured,
+ * or if the {@code lambdatest.tunnel.autoStart} system property is {@code false}.
+ * <p>
+ * Tests get the tunnel with {@link #tunnel()}, which waits for the connection, so only the first
+ * test that needs it blocks, and only for what is left of the connect:
+ * <pre>
+ * &#64;Test
+ * public void checkout() throws Exception {
+ *     Tunnel tunnel = LambdaTestTunnelListener.tunnel();
+ *     caps.setCapability("tunnelName", LambdaTestTunnelListener.options().getTunnelName());
+ *     ...
+ * }
+ * </pre>
+ */
+public class LambdaTestTunnelListener implements IExecutionListener {
+
+    static final String AUTO_START_PROPERTY = "lambdatest.tunnel.autoStart";
+
+    /**
+     * @return the connected tunnel of the test run
+     * @throws Exception why the tunnel did not connect
+     */
+    public static Tunnel tunnel() throws Exception {
+        return SharedTunnel.get().await();
+    }
+
+    /**
+     * @return the options of the test run's tunnel, without waiting for it to connect
+     */
+    public static TunnelOptions options() {
+        return SharedTunnel.get().getOptions();
+    }
+
+    @Override
+    public void onExecutionStart() {
+        if (Boolean.parseBoolean(System.getProperty(AUTO_START_PROPERTY, "true")) && SharedTunnel.isConfigured()) {
+            // failures are reported to the tests that wait for the tunnel
+            SharedTunnel.get().start();
+        }
+    }
+
+    @Override
+    public void onExecutionFinish() {
+        if (!SharedTunnel.isConfigured()) return;
+        try {
+            SharedTunnel.get().stop();
+        } catch (Exception e) {
+            // the run is over; nothing left to report it to
+        }
+    }
+}
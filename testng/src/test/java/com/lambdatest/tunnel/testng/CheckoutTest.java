@@ -0,0 +1,19 @@
+package com.lambdatest.tunnel.testng;
+
+import com.lambdatest.tunnel.SharedTunnel;
+import com.lambdatest.tunnel.Tunnel;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class CheckoutTest {
+
+    @Test(invocationCount = 4, threadPoolSize = 4)
+    public void sharesOneTunnel() throws Exception {
+        Tunnel tunnel = LambdaTestTunnelListener.tunnel();
+        assertTrue(tunnel.isRunning());
+        assertSame(tunnel, SharedTunnel.get().await());
+        assertEquals(LambdaTestTunnelListener.options().getTunnelName(), "testng");
+        assertEquals(StubLog.running("testng"), 1);
+    }
+}
@@ -0,0 +1,18 @@
+package com.lambdatest.tunnel.testng;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+/**
+ * Run by a surefire execution of its own once the other tests' TestNG run is finished.
+ */
+public class TunnelStoppedTest {
+
+    @Test
+    public void executionStoppedItsTunnelOnce() throws Exception {
+        assertEquals(StubLog.operations("testng"), Arrays.asList("start", "stop"));
+    }
+}